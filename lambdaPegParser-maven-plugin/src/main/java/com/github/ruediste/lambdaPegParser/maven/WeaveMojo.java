@@ -0,0 +1,71 @@
+package com.github.ruediste.lambdaPegParser.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+import com.github.ruediste.lambdaPegParser.AheadOfTimeWeaving;
+import com.github.ruediste.lambdaPegParser.ParserFactory;
+
+/**
+ * Weaves the parser classes of the project at build time, such that the
+ * {@link ParserFactory} does not have to weave them at runtime. See
+ * {@link AheadOfTimeWeaving}.
+ * 
+ * <p>
+ * The project has to use the same version of the lambda peg parser as the
+ * plugin. Otherwise the pre-weaved classes are ignored at runtime.
+ * </p>
+ */
+@Mojo(name = "weave", defaultPhase = LifecyclePhase.PROCESS_CLASSES, requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
+public class WeaveMojo extends AbstractMojo {
+
+    @Parameter(defaultValue = "${project.build.outputDirectory}", required = true)
+    private File classesDirectory;
+
+    @Parameter(defaultValue = "${project.compileClasspathElements}", readonly = true, required = true)
+    private List<String> classpathElements;
+
+    @Parameter(defaultValue = "false", property = "lambdaPegParser.weave.skip")
+    private boolean skip;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        if (skip || !classesDirectory.isDirectory())
+            return;
+
+        List<URL> urls = new ArrayList<>();
+        try {
+            urls.add(classesDirectory.toURI().toURL());
+            for (String element : classpathElements) {
+                urls.add(new File(element).toURI().toURL());
+            }
+        } catch (MalformedURLException e) {
+            throw new MojoExecutionException("Invalid class path element", e);
+        }
+
+        // the parser library is loaded from the plugin, such that the
+        // Parser class of the project and of the weaver are the same
+        try (URLClassLoader loader = new URLClassLoader(urls.toArray(new URL[] {}),
+                ParserFactory.class.getClassLoader())) {
+            List<String> weaved = AheadOfTimeWeaving.weave(classesDirectory.toPath(), loader);
+            for (String className : weaved) {
+                getLog().debug("Weaved " + className);
+            }
+            getLog().info("Weaved " + weaved.size() + " parser classes");
+        } catch (IOException | RuntimeException e) {
+            throw new MojoExecutionException("Error while weaving parser classes", e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.ruediste.lambdaPegParser;
+
+/**
+ * Base class for {@link ParsingInput}s consisting of UTF-16 chars. The
+ * indexes are char indexes.
+ */
+public abstract class AbstractCharInput implements ParsingInput {
+
+    /**
+     * Return the char at the given index
+     */
+    protected abstract char charAt(int index);
+
+    @Override
+    public boolean hasCodePointAt(int index) {
+        return index < length();
+    }
+
+    @Override
+    public int codePointAt(int index) {
+        char high = charAt(index);
+        if (Character.isHighSurrogate(high) && hasCodePointAt(index + 1)) {
+            char low = charAt(index + 1);
+            if (Character.isLowSurrogate(low))
+                return Character.toCodePoint(high, low);
+        }
+        return high;
+    }
+
+    @Override
+    public int nextIndex(int index) {
+        if (Character.isHighSurrogate(charAt(index)) && hasCodePointAt(index + 1)
+                && Character.isLowSurrogate(charAt(index + 1)))
+            return index + 2;
+        return index + 1;
+    }
+
+    @Override
+    public int indexOf(int codePoint, int fromIndex) {
+        if (Character.isBmpCodePoint(codePoint)) {
+            for (int idx = fromIndex; hasCodePointAt(idx); idx++) {
+                if (charAt(idx) == codePoint)
+                    return idx;
+            }
+            return -1;
+        }
+        return ParsingInput.super.indexOf(codePoint, fromIndex);
+    }
+
+    @Override
+    public String toString() {
+        return substring(0, length());
+    }
+}
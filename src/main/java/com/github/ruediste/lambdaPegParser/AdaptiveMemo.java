@@ -0,0 +1,19 @@
+package com.github.ruediste.lambdaPegParser;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * When present on a {@link Parser} class, memoization is turned on and off at
+ * runtime for each rule not annotated with {@link Memo}, depending on how
+ * often the rule is invoked again at the same position. The decisions can be
+ * inspected using {@link Parser#getAdaptiveMemoStatistics()}, allowing to
+ * annotate the rules which pay off with {@link Memo}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface AdaptiveMemo {
+
+}
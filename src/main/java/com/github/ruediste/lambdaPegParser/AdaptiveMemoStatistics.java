@@ -0,0 +1,190 @@
+package com.github.ruediste.lambdaPegParser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which rules are memoized if the parser class is annotated with
+ * {@link AdaptiveMemo}.
+ *
+ * <p>
+ * For each rule, the positions of the recent invocations are kept in a small
+ * direct mapped table. An invocation at a position found in the table is
+ * counted as repeated invocation, which would have been a hit if the rule was
+ * memoized. The ratio of repeated invocations is evaluated after every
+ * {@link #WINDOW} invocations. Memoization is turned on if the ratio reaches
+ * {@link #ENABLE_RATIO} and turned off again if it drops below
+ * {@link #DISABLE_RATIO}.
+ * </p>
+ */
+public class AdaptiveMemoStatistics {
+
+    /**
+     * Number of invocations after which the decision of a rule is
+     * re-evaluated
+     */
+    public static final int WINDOW = 256;
+
+    /**
+     * Minimal ratio of repeated invocations to turn memoization on
+     */
+    public static final double ENABLE_RATIO = 0.2;
+
+    /**
+     * Ratio of repeated invocations below which memoization is turned off
+     */
+    public static final double DISABLE_RATIO = 0.05;
+
+    private static final int POSITION_TABLE_SIZE = 64;
+
+    /**
+     * Statistics of a single rule
+     */
+    public static class RuleStatistics {
+        private String methodName;
+        /**
+         * recently seen positions, combined with the input generation in
+         * the upper bits
+         */
+        private final long[] recentPositions = new long[POSITION_TABLE_SIZE];
+        private int windowInvocations;
+        private int windowRepeats;
+        private long invocations;
+        private long repeats;
+        private boolean memoized;
+        private int decisionChanges;
+
+        RuleStatistics(String methodName) {
+            this.methodName = methodName;
+            Arrays.fill(recentPositions, -1);
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+
+        public long getInvocations() {
+            return invocations;
+        }
+
+        /**
+         * Number of invocations at a position the rule has recently been
+         * invoked at
+         */
+        public long getRepeatedInvocations() {
+            return repeats;
+        }
+
+        public double getRepeatRatio() {
+            return invocations == 0 ? 0 : (double) repeats / invocations;
+        }
+
+        /**
+         * If true, the rule is currently memoized
+         */
+        public boolean isMemoized() {
+            return memoized;
+        }
+
+        /**
+         * Number of times memoization has been turned on or off
+         */
+        public int getDecisionChanges() {
+            return decisionChanges;
+        }
+
+        @Override
+        public String toString() {
+            return methodName + ": invocations: " + invocations + " repeated: " + repeats + " memoized: "
+                    + memoized;
+        }
+    }
+
+    private RuleStatistics[] rules = new RuleStatistics[0];
+
+    private int generation;
+
+    /**
+     * Forget the recently seen positions, since they refer to the previous
+     * input. The counters and memoization decisions are kept, so a parser
+     * reused for similar inputs does not have to learn them again.
+     */
+    public void inputChanged() {
+        generation++;
+    }
+
+    /**
+     * Record the invocation of a rule at the given position and return true
+     * if the rule should be memoized. Called by the woven rule methods.
+     */
+    public boolean invoked(int methodNr, String methodName, int index) {
+        if (methodNr >= rules.length)
+            rules = Arrays.copyOf(rules, methodNr + 1);
+        RuleStatistics stats = rules[methodNr];
+        if (stats == null) {
+            stats = new RuleStatistics(methodName);
+            rules[methodNr] = stats;
+        }
+
+        int slot = index & (POSITION_TABLE_SIZE - 1);
+        long position = ((long) generation << 32) | (index & 0xFFFFFFFFL);
+        stats.invocations++;
+        stats.windowInvocations++;
+        if (stats.recentPositions[slot] == position) {
+            stats.repeats++;
+            stats.windowRepeats++;
+        } else
+            stats.recentPositions[slot] = position;
+
+        if (stats.windowInvocations == WINDOW) {
+            double ratio = (double) stats.windowRepeats / WINDOW;
+            boolean memoized = stats.memoized ? ratio >= DISABLE_RATIO : ratio >= ENABLE_RATIO;
+            if (memoized != stats.memoized) {
+                stats.memoized = memoized;
+                stats.decisionChanges++;
+            }
+            stats.windowInvocations = 0;
+            stats.windowRepeats = 0;
+        }
+        return stats.memoized;
+    }
+
+    /**
+     * Return the statistics of all invoked rules, by method name. Overloaded
+     * rules are merged under the same name, the last one wins.
+     */
+    public Map<String, RuleStatistics> getRuleStatistics() {
+        Map<String, RuleStatistics> result = new LinkedHashMap<>();
+        for (RuleStatistics stats : rules) {
+            if (stats != null)
+                result.put(stats.methodName, stats);
+        }
+        return result;
+    }
+
+    /**
+     * Return the names of the rules which are currently memoized. These are
+     * the candidates to be annotated with {@link Memo}.
+     */
+    public List<String> getMemoizedRules() {
+        List<String> result = new ArrayList<>();
+        for (RuleStatistics stats : rules) {
+            if (stats != null && stats.memoized)
+                result.add(stats.methodName);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("AdaptiveMemoStatistics:");
+        for (RuleStatistics stats : rules) {
+            if (stats != null)
+                sb.append("\n  ").append(stats);
+        }
+        return sb.toString();
+    }
+}
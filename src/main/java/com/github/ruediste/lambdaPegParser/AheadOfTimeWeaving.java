@@ -0,0 +1,183 @@
+package com.github.ruediste.lambdaPegParser;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import com.github.ruediste.lambdaPegParser.weaving.FirstSetAnalyzer;
+import com.github.ruediste.lambdaPegParser.weaving.InliningAdapter;
+import com.github.ruediste.lambdaPegParser.weaving.LeftRecursionAnalyzer;
+import com.github.ruediste.lambdaPegParser.weaving.LocalVariableShifter;
+import com.github.ruediste.lambdaPegParser.weaving.MethodCallInliner;
+import com.github.ruediste.lambdaPegParser.weaving.MinMaxLineMethodAdapter;
+import com.github.ruediste.lambdaPegParser.weaving.PrototypeCustomizer;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Weaving of parser classes at build time.
+ *
+ * <p>
+ * The weaved byte code of both variants of a parser class (see
+ * {@link ParsingContext#isDiagnostic()}) is written to
+ * {@code META-INF/lambdaPegParser/} in the output directory, preceded by a
+ * checksum of the original byte code of the parser class, of the
+ * {@link PrototypeParser} and of the weaving code, and of the version of the
+ * weaver. The {@link ParserFactory} uses the pre-weaved byte code if present
+ * and if the checksum matches, skipping the weaving at runtime. Otherwise (the
+ * class has been recompiled, another version of the library is used or the
+ * file cannot be read), the class is weaved at runtime as usual.
+ * </p>
+ */
+public class AheadOfTimeWeaving {
+
+    private static final String PREFIX = "META-INF/lambdaPegParser/";
+
+    /**
+     * Version of the weaved byte code. Has to be incremented whenever the
+     * weaved byte code changes in a way not reflected by the byte code of the
+     * {@link #WEAVING_CLASSES}.
+     */
+    static final int WEAVER_VERSION = 1;
+
+    /**
+     * Classes whose byte code determines the weaved byte code
+     */
+    private static final List<Class<?>> WEAVING_CLASSES = Arrays.asList(PrototypeParser.class, ParserFactory.class,
+            FirstSetAnalyzer.class, LeftRecursionAnalyzer.class, LocalVariableShifter.class, MethodCallInliner.class,
+            InliningAdapter.class, MinMaxLineMethodAdapter.class, PrototypeCustomizer.class);
+
+    private AheadOfTimeWeaving() {
+    }
+
+    /**
+     * Weave all concrete parser classes found in a class output directory.
+     *
+     * @param classesDirectory
+     *            directory containing the compiled classes. The weaved classes
+     *            are written to this directory as well.
+     * @param classLoader
+     *            class loader able to load the classes of the directory, along
+     *            with their dependencies. Has to load the {@link Parser} class
+     *            from the same loader as this class.
+     * @return the names of the weaved classes
+     */
+    public static List<String> weave(Path classesDirectory, ClassLoader classLoader) throws IOException {
+        List<Path> classFiles;
+        try (Stream<Path> files = Files.walk(classesDirectory)) {
+            classFiles = files.filter(p -> p.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+        }
+        List<String> weaved = new ArrayList<>();
+        for (Path classFile : classFiles) {
+            String relative = classesDirectory.relativize(classFile).toString().replace('\\', '/');
+            if (relative.startsWith(PREFIX))
+                continue;
+            String className = relative.substring(0, relative.length() - ".class".length()).replace('/', '.');
+            Class<?> cls;
+            try {
+                cls = Class.forName(className, false, classLoader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                continue;
+            }
+            if (!Parser.class.isAssignableFrom(cls) || Modifier.isAbstract(cls.getModifiers())
+                    || cls == PrototypeParser.class)
+                continue;
+            weave(cls, classesDirectory);
+            weaved.add(className);
+        }
+        return weaved;
+    }
+
+    /**
+     * Weave both variants of a parser class and write them to the output
+     * directory
+     */
+    public static void weave(Class<?> parserClass, Path outputDirectory) throws IOException {
+        long checksum = checksum(parserClass);
+        for (boolean diagnostic : new boolean[] { false, true }) {
+            Path target = outputDirectory.resolve(resourceName(parserClass, diagnostic));
+            Files.createDirectories(target.getParent());
+            try (OutputStream out = Files.newOutputStream(target)) {
+                write(out, checksum, ParserFactory.weaveClass(parserClass, diagnostic));
+            }
+        }
+    }
+
+    /**
+     * Read the pre-weaved byte code of a parser class.
+     *
+     * @return the weaved byte code, or null if the parser class has not been
+     *         weaved ahead of time, has changed since or the pre-weaved class
+     *         cannot be read
+     */
+    public static byte[] readWeavedClass(Class<?> parserClass, boolean diagnostic) {
+        return readWeavedClass(parserClass.getClassLoader(), parserClass, diagnostic);
+    }
+
+    static byte[] readWeavedClass(ClassLoader classLoader, Class<?> parserClass, boolean diagnostic) {
+        if (classLoader == null)
+            return null;
+        try (InputStream in = classLoader.getResourceAsStream(resourceName(parserClass, diagnostic))) {
+            if (in == null)
+                return null;
+            DataInputStream data = new DataInputStream(in);
+            if (data.readLong() != checksum(parserClass))
+                return null;
+            byte[] result = new byte[data.readInt()];
+            data.readFully(result);
+            return result;
+        } catch (IOException e) {
+            // truncated or unreadable, weave at runtime
+            return null;
+        }
+    }
+
+    static void write(OutputStream out, long checksum, byte[] weavedByteCode) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeLong(checksum);
+        data.writeInt(weavedByteCode.length);
+        data.write(weavedByteCode);
+        data.flush();
+    }
+
+    static String resourceName(Class<?> parserClass, boolean diagnostic) {
+        return PREFIX + (diagnostic ? "diagnostic/" : "production/") + parserClass.getName().replace('.', '/')
+                + ".class";
+    }
+
+    /**
+     * Checksum over the original byte code of the parser class, the byte code
+     * of the weaving classes, the {@link #WEAVER_VERSION} and the
+     * implementation version of the library, if available
+     */
+    static long checksum(Class<?> parserClass) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(readClassBytes(parserClass));
+        for (Class<?> cls : WEAVING_CLASSES)
+            crc.update(readClassBytes(cls));
+        crc.update(WEAVER_VERSION);
+        String implementationVersion = AheadOfTimeWeaving.class.getPackage().getImplementationVersion();
+        if (implementationVersion != null)
+            crc.update(implementationVersion.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    private static byte[] readClassBytes(Class<?> cls) throws IOException {
+        try (InputStream in = cls.getClassLoader().getResourceAsStream(cls.getName().replace('.', '/') + ".class")) {
+            if (in == null)
+                throw new IOException("Byte code of " + cls.getName() + " not found");
+            return ByteStreams.toByteArray(in);
+        }
+    }
+}
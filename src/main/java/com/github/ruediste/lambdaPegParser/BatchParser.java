@@ -0,0 +1,184 @@
+package com.github.ruediste.lambdaPegParser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Parses a stream of small, independent inputs with bounded parallelism.
+ *
+ * <p>
+ * A fixed number of workers pull the inputs from the stream. Each worker
+ * reuses a single parser instance (see
+ * {@link CompiledGrammar#newReusableParser()}) for all its inputs. Parse
+ * errors do not abort the batch but are reported as failed
+ * {@link ParseResult}s. Other exceptions stop the batch and are rethrown by
+ * {@link #parseAll(Stream, Consumer)}.
+ * </p>
+ *
+ * <p>
+ * If the results are ordered, they are passed to the consumer in input order.
+ * To bound the memory used by results waiting for a slow input, the workers
+ * pause if they get too far ahead. The consumer is never invoked concurrently.
+ * </p>
+ */
+public class BatchParser<T> {
+
+    private final CompiledGrammar<T> grammar;
+    private final int parallelism;
+    private final Executor executor;
+    private final boolean ordered;
+
+    /**
+     * Maximum number of inputs taken from the stream which have not been
+     * passed to the consumer yet, if ordered
+     */
+    private final int window;
+
+    /**
+     * @param parallelism
+     *            number of workers
+     * @param executor
+     *            executor running the workers. If null, a virtual thread per
+     *            worker is used if available (Java 21+), otherwise a thread
+     *            pool is created for each batch.
+     * @param ordered
+     *            if true, the results are passed to the consumer in input
+     *            order. Otherwise in completion order.
+     */
+    public BatchParser(CompiledGrammar<T> grammar, int parallelism, Executor executor, boolean ordered) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        this.grammar = grammar;
+        this.parallelism = parallelism;
+        this.executor = executor;
+        this.ordered = ordered;
+        this.window = parallelism * 16;
+    }
+
+    /**
+     * Parse all inputs and return the results
+     */
+    public List<ParseResult<T>> parseAll(Stream<? extends CharSequence> inputs) {
+        List<ParseResult<T>> results = new ArrayList<>();
+        parseAll(inputs, results::add);
+        return results;
+    }
+
+    /**
+     * Parse all inputs and pass the results to the consumer. Returns when all
+     * inputs have been processed.
+     */
+    public void parseAll(Stream<? extends CharSequence> inputs, Consumer<? super ParseResult<T>> consumer) {
+        Batch batch = new Batch(inputs.iterator(), consumer);
+        ExecutorService ownExecutor = executor == null ? createDefaultExecutor(parallelism) : null;
+        try {
+            CompletableFuture<?>[] workers = new CompletableFuture<?>[parallelism];
+            for (int i = 0; i < parallelism; i++) {
+                workers[i] = CompletableFuture.runAsync(batch::work, ownExecutor != null ? ownExecutor : executor);
+            }
+            CompletableFuture.allOf(workers).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw e;
+        } finally {
+            if (ownExecutor != null)
+                ownExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Create an executor starting a virtual thread per task if available, a
+     * fixed thread pool otherwise
+     */
+    static ExecutorService createDefaultExecutor(int parallelism) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(parallelism);
+        }
+    }
+
+    /**
+     * State of a single invocation of {@link BatchParser#parseAll(Stream,
+     * Consumer)}. All fields are guarded by the batch instance.
+     */
+    private class Batch {
+        private final Iterator<? extends CharSequence> inputs;
+        private final Consumer<? super ParseResult<T>> consumer;
+        private final Map<Long, ParseResult<T>> pending = new HashMap<>();
+        private long nextIndex;
+        private long nextToEmit;
+        private boolean failed;
+
+        Batch(Iterator<? extends CharSequence> inputs, Consumer<? super ParseResult<T>> consumer) {
+            this.inputs = inputs;
+            this.consumer = consumer;
+        }
+
+        void work() {
+            Function<ParsingInput, T> parser = grammar.newReusableParser();
+            try {
+                while (true) {
+                    long index;
+                    CharSequence input;
+                    synchronized (this) {
+                        while (ordered && !failed && nextIndex - nextToEmit >= window)
+                            wait();
+                        if (failed || !inputs.hasNext())
+                            return;
+                        input = inputs.next();
+                        index = nextIndex++;
+                    }
+
+                    ParseResult<T> result;
+                    try {
+                        result = ParseResult.success(index, parser.apply(new CharSequenceInput(input)));
+                    } catch (NoMatchException e) {
+                        result = ParseResult.failure(index, e.getErrorDescription());
+                    }
+                    emit(result);
+                }
+            } catch (InterruptedException e) {
+                fail();
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while parsing batch", e);
+            } catch (RuntimeException | Error e) {
+                fail();
+                throw e;
+            }
+        }
+
+        private synchronized void emit(ParseResult<T> result) {
+            if (!ordered) {
+                consumer.accept(result);
+                return;
+            }
+            pending.put(result.getIndex(), result);
+            ParseResult<T> next;
+            while ((next = pending.remove(nextToEmit)) != null) {
+                consumer.accept(next);
+                nextToEmit++;
+            }
+            notifyAll();
+        }
+
+        private synchronized void fail() {
+            failed = true;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.ruediste.lambdaPegParser;
+
+/**
+ * {@link ParsingInput} reading from a part of a char array, without copying
+ * it.
+ */
+public class CharArrayInput extends AbstractCharInput {
+
+    private final char[] chars;
+    private final int offset;
+    private final int length;
+
+    public CharArrayInput(char[] chars) {
+        this(chars, 0, chars.length);
+    }
+
+    /**
+     * Use length chars starting at offset as input. Index 0 of the input refers
+     * to the char at offset.
+     */
+    public CharArrayInput(char[] chars, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > chars.length)
+            throw new IndexOutOfBoundsException("offset: " + offset + " length: " + length);
+        this.chars = chars;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    protected char charAt(int index) {
+        return chars[offset + index];
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public String substring(int start, int end) {
+        return new String(chars, offset + start, end - start);
+    }
+
+    @Override
+    public boolean isInMemoryCharInput() {
+        return true;
+    }
+
+    @Override
+    public long sourceOffset(int index) {
+        return offset + index;
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.ruediste.lambdaPegParser;
+
+import java.nio.CharBuffer;
+
+/**
+ * {@link ParsingInput} reading the remaining chars of a {@link CharBuffer},
+ * without copying them. Index 0 refers to the position of the buffer at the
+ * time the input is created. The position and limit of the buffer are not
+ * modified.
+ */
+public class CharBufferInput extends AbstractCharInput {
+
+    private final CharBuffer buffer;
+    private final int offset;
+    private final int length;
+
+    public CharBufferInput(CharBuffer buffer) {
+        this.buffer = buffer;
+        this.offset = buffer.position();
+        this.length = buffer.remaining();
+    }
+
+    @Override
+    protected char charAt(int index) {
+        return buffer.get(offset + index);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public String substring(int start, int end) {
+        char[] result = new char[end - start];
+        for (int i = 0; i < result.length; i++)
+            result[i] = buffer.get(offset + start + i);
+        return new String(result);
+    }
+
+    @Override
+    public boolean isInMemoryCharInput() {
+        return true;
+    }
+
+    @Override
+    public long sourceOffset(int index) {
+        return offset + index;
+    }
+}
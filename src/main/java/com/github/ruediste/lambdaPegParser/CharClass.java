@@ -0,0 +1,260 @@
+package com.github.ruediste.lambdaPegParser;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.IntPredicate;
+
+/**
+ * A set of code points, used with {@link Parser#Char(CharClass)},
+ * {@link Parser#ZeroOrMoreChars(CharClass)} and
+ * {@link Parser#OneOrMoreChars(CharClass)}.
+ *
+ * <p>
+ * When created, the class is compiled into a bitmap for the basic
+ * multilingual plane and a table of ranges for the supplementary code points.
+ * Testing a code point is thus allocation free and does not depend on the
+ * complexity of the definition. Only classes created from an arbitrary
+ * predicate ({@link #matching(IntPredicate, String)}) evaluate the predicate
+ * for every code point, which is relatively expensive; such instances should
+ * be created once, typically in a static field, and reused. The other
+ * factories and the combinations build the bitmap and ranges directly.
+ * Instances are immutable.
+ * </p>
+ *
+ * <p>
+ * Each class carries a description, which is reported as expectation if a
+ * code point does not match.
+ * </p>
+ */
+public final class CharClass implements IntPredicate {
+
+    private static final int BMP_SIZE = 0x10000;
+
+    /**
+     * Compiled classes of the Unicode general categories, by type
+     */
+    private static final ConcurrentMap<Integer, CharClass> categories = new ConcurrentHashMap<>();
+
+    /**
+     * Bitmap of the basic multilingual plane. Never modified once the class is
+     * created, and thus shared between classes.
+     */
+    private final long[] bmp;
+
+    /**
+     * Ranges of matching supplementary code points. Contains the first and
+     * last code point of each range, in ascending order.
+     */
+    private final int[] supplementaryRanges;
+
+    private final String description;
+
+    private CharClass(long[] bmp, int[] supplementaryRanges, String description) {
+        this.bmp = bmp;
+        this.supplementaryRanges = supplementaryRanges;
+        this.description = description;
+    }
+
+    private CharClass(IntPredicate definition, String description) {
+        this.description = description;
+        bmp = new long[BMP_SIZE / 64];
+        for (int cp = 0; cp < BMP_SIZE; cp++) {
+            if (definition.test(cp))
+                bmp[cp >> 6] |= 1L << cp;
+        }
+        RangeBuilder ranges = new RangeBuilder();
+        int rangeStart = -1;
+        for (int cp = BMP_SIZE; cp <= Character.MAX_CODE_POINT + 1; cp++) {
+            boolean matches = cp <= Character.MAX_CODE_POINT && definition.test(cp);
+            if (matches && rangeStart == -1)
+                rangeStart = cp;
+            if (!matches && rangeStart != -1) {
+                ranges.add(rangeStart, cp - 1);
+                rangeStart = -1;
+            }
+        }
+        supplementaryRanges = ranges.build();
+    }
+
+    /**
+     * Collects ranges of supplementary code points in ascending order, merging
+     * adjacent ranges
+     */
+    private static class RangeBuilder {
+        private int[] ranges = new int[16];
+        private int count;
+
+        void add(int first, int last) {
+            if (count > 0 && ranges[count - 1] + 1 >= first) {
+                ranges[count - 1] = Math.max(ranges[count - 1], last);
+                return;
+            }
+            if (count + 2 > ranges.length)
+                ranges = Arrays.copyOf(ranges, ranges.length * 2);
+            ranges[count++] = first;
+            ranges[count++] = last;
+        }
+
+        int[] build() {
+            return Arrays.copyOf(ranges, count);
+        }
+    }
+
+    /**
+     * Create a class from an arbitrary predicate. The predicate is evaluated
+     * for every code point while compiling.
+     */
+    public static CharClass matching(IntPredicate predicate, String description) {
+        return new CharClass(predicate, description);
+    }
+
+    /**
+     * Create a class containing the code points of the given string
+     */
+    public static CharClass of(String chars) {
+        long[] bmp = new long[BMP_SIZE / 64];
+        RangeBuilder ranges = new RangeBuilder();
+        for (int cp : chars.codePoints().sorted().toArray()) {
+            if (cp < BMP_SIZE)
+                bmp[cp >> 6] |= 1L << cp;
+            else
+                ranges.add(cp, cp);
+        }
+        return new CharClass(bmp, ranges.build(), "one of " + chars);
+    }
+
+    /**
+     * Create a class containing the code points of the given range
+     * (inclusive)
+     */
+    public static CharClass range(int first, int last) {
+        long[] bmp = new long[BMP_SIZE / 64];
+        int bmpFirst = Math.max(first, 0);
+        int bmpLast = Math.min(last, BMP_SIZE - 1);
+        for (int cp = bmpFirst; cp <= bmpLast; cp++)
+            bmp[cp >> 6] |= 1L << cp;
+        RangeBuilder ranges = new RangeBuilder();
+        int supplementaryFirst = Math.max(first, BMP_SIZE);
+        int supplementaryLast = Math.min(last, Character.MAX_CODE_POINT);
+        if (supplementaryFirst <= supplementaryLast)
+            ranges.add(supplementaryFirst, supplementaryLast);
+        return new CharClass(bmp, ranges.build(), Parser.charRangeExpectation(first, last));
+    }
+
+    /**
+     * Create a class containing the code points of the given Unicode general
+     * category, as returned by {@link Character#getType(int)}. The categories
+     * are only compiled once.
+     */
+    public static CharClass category(int type, String description) {
+        return categories.computeIfAbsent(type, t -> new CharClass(cp -> Character.getType(cp) == t, null))
+                .withDescription(description);
+    }
+
+    /**
+     * Return a class containing the code points of this and the other class
+     */
+    public CharClass union(CharClass other) {
+        long[] result = new long[bmp.length];
+        for (int i = 0; i < result.length; i++)
+            result[i] = bmp[i] | other.bmp[i];
+
+        // merge the ranges ordered by their first code point
+        RangeBuilder ranges = new RangeBuilder();
+        int[] a = supplementaryRanges;
+        int[] b = other.supplementaryRanges;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (j >= b.length || (i < a.length && a[i] <= b[j])) {
+                ranges.add(a[i], a[i + 1]);
+                i += 2;
+            } else {
+                ranges.add(b[j], b[j + 1]);
+                j += 2;
+            }
+        }
+        return new CharClass(result, ranges.build(), description + " or " + other.description);
+    }
+
+    /**
+     * Return a class containing the code points contained in this and in the
+     * other class
+     */
+    public CharClass intersection(CharClass other, String description) {
+        long[] result = new long[bmp.length];
+        for (int i = 0; i < result.length; i++)
+            result[i] = bmp[i] & other.bmp[i];
+
+        RangeBuilder ranges = new RangeBuilder();
+        int[] a = supplementaryRanges;
+        int[] b = other.supplementaryRanges;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            int first = Math.max(a[i], b[j]);
+            int last = Math.min(a[i + 1], b[j + 1]);
+            if (first <= last)
+                ranges.add(first, last);
+            // advance the range ending first
+            if (a[i + 1] < b[j + 1])
+                i += 2;
+            else
+                j += 2;
+        }
+        return new CharClass(result, ranges.build(), description);
+    }
+
+    /**
+     * Return a class containing all code points not contained in this class
+     */
+    @Override
+    public CharClass negate() {
+        long[] result = new long[bmp.length];
+        for (int i = 0; i < result.length; i++)
+            result[i] = ~bmp[i];
+
+        // the gaps between the ranges
+        RangeBuilder ranges = new RangeBuilder();
+        int next = BMP_SIZE;
+        for (int i = 0; i < supplementaryRanges.length; i += 2) {
+            if (next < supplementaryRanges[i])
+                ranges.add(next, supplementaryRanges[i] - 1);
+            next = supplementaryRanges[i + 1] + 1;
+        }
+        if (next <= Character.MAX_CODE_POINT)
+            ranges.add(next, Character.MAX_CODE_POINT);
+        return new CharClass(result, ranges.build(), "any char except " + description);
+    }
+
+    /**
+     * Return a class containing the same code points but using a different
+     * description
+     */
+    public CharClass withDescription(String description) {
+        return new CharClass(bmp, supplementaryRanges, description);
+    }
+
+    @Override
+    public boolean test(int cp) {
+        if (cp < BMP_SIZE)
+            return cp >= 0 && (bmp[cp >> 6] & (1L << cp)) != 0;
+        int idx = Arrays.binarySearch(supplementaryRanges, cp);
+        // found range boundary, or between first and last code point of a
+        // range
+        return idx >= 0 || (-idx - 1) % 2 == 1;
+    }
+
+    /**
+     * The description, used as expectation
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    @Override
+    public String toString() {
+        return "CharClass(" + description + ")";
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.ruediste.lambdaPegParser;
+
+/**
+ * {@link ParsingInput} reading from a {@link CharSequence}, such as a
+ * {@link String} or a {@link StringBuilder}. A part of the sequence can be
+ * used as input without copying it.
+ */
+public class CharSequenceInput extends AbstractCharInput {
+
+    private final CharSequence sequence;
+    private final int offset;
+    private final int length;
+
+    public CharSequenceInput(CharSequence sequence) {
+        this(sequence, 0, sequence.length());
+    }
+
+    /**
+     * Use the chars between start (inclusive) and end (exclusive) as input.
+     * Index 0 of the input refers to the char at start.
+     */
+    public CharSequenceInput(CharSequence sequence, int start, int end) {
+        if (start < 0 || end > sequence.length() || start > end)
+            throw new IndexOutOfBoundsException("start: " + start + " end: " + end);
+        this.sequence = sequence;
+        this.offset = start;
+        this.length = end - start;
+    }
+
+    @Override
+    protected char charAt(int index) {
+        return sequence.charAt(offset + index);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public String substring(int start, int end) {
+        return sequence.subSequence(offset + start, offset + end).toString();
+    }
+
+    public CharSequence getSequence() {
+        return sequence;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    @Override
+    public boolean isInMemoryCharInput() {
+        return true;
+    }
+
+    @Override
+    public long sourceOffset(int index) {
+        return offset + index;
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.ruediste.lambdaPegParser;
+
+import java.util.ArrayList;
+
+/**
+ * Prediction of the first code point matched by a choice of
+ * {@link Parser#FirstOf(java.util.function.Supplier...)}.
+ *
+ * <p>
+ * The predictions are determined while weaving (see
+ * {@link com.github.ruediste.lambdaPegParser.weaving.FirstSetAnalyzer}) and
+ * stored in the weaved class encoded as string. They are decoded once per
+ * call site and passed to
+ * {@link Parser#PredictedFirstOf(java.util.function.Supplier[], ChoicePrediction[])}.
+ * For each choice, the encoding contains one of
+ * </p>
+ * <ul>
+ * <li><b>?</b>: nothing is known about the choice</li>
+ * <li><b>S</b>length<b>:</b>literal: the choice starts by matching the
+ * literal</li>
+ * <li><b>R</b>first<b>,</b>last<b>;</b>: the choice starts by matching a
+ * character in the given code point range</li>
+ * </ul>
+ */
+public class ChoicePrediction {
+
+    public static final String UNKNOWN = "?";
+
+    private final int first;
+    private final int last;
+    private final String expectation;
+
+    private ChoicePrediction(int first, int last, String expectation) {
+        this.first = first;
+        this.last = last;
+        this.expectation = expectation;
+    }
+
+    /**
+     * Encode the prediction of a choice starting with a non-empty literal
+     */
+    public static String encodeLiteral(String literal) {
+        return "S" + literal.length() + ":" + literal;
+    }
+
+    /**
+     * Encode the prediction of a choice starting with a character range
+     */
+    public static String encodeRange(int first, int last) {
+        return "R" + first + "," + last + ";";
+    }
+
+    /**
+     * Return true if the choice can match if the input starts with the given
+     * code point. Use -1 for the end of the input.
+     */
+    public boolean matches(int cp) {
+        return cp >= first && cp <= last;
+    }
+
+    /**
+     * The expectation reported by the choice if it does not match
+     */
+    public String getExpectation() {
+        return expectation;
+    }
+
+    /**
+     * Decode the predictions of the choices. Unknown predictions are
+     * represented by null.
+     */
+    public static ChoicePrediction[] parse(String predictions) {
+        ArrayList<ChoicePrediction> result = new ArrayList<>();
+        int idx = 0;
+        while (idx < predictions.length()) {
+            char kind = predictions.charAt(idx++);
+            if (kind == '?') {
+                result.add(null);
+            } else if (kind == 'S') {
+                int colon = predictions.indexOf(':', idx);
+                int length = Integer.parseInt(predictions.substring(idx, colon));
+                String literal = predictions.substring(colon + 1, colon + 1 + length);
+                int cp = literal.codePointAt(0);
+                result.add(new ChoicePrediction(cp, cp, literal));
+                idx = colon + 1 + length;
+            } else if (kind == 'R') {
+                int comma = predictions.indexOf(',', idx);
+                int semicolon = predictions.indexOf(';', comma);
+                int first = Integer.parseInt(predictions.substring(idx, comma));
+                int last = Integer.parseInt(predictions.substring(comma + 1, semicolon));
+                result.add(new ChoicePrediction(first, last, Parser.charRangeExpectation(first, last)));
+                idx = semicolon + 1;
+            } else
+                throw new IllegalArgumentException("Invalid choice predictions " + predictions);
+        }
+        return result.toArray(new ChoicePrediction[] {});
+    }
+}
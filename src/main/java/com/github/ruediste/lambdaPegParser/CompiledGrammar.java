@@ -0,0 +1,137 @@
+package com.github.ruediste.lambdaPegParser;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Immutable handle of a weaved grammar, which can be shared freely between
+ * threads.
+ *
+ * <p>
+ * The parser class is weaved and the delegate class is generated when the
+ * grammar is {@link #compile(Class, Function) compiled}. Each invocation of
+ * {@link #parse(ParsingInput)} creates a fresh {@link ParsingContext} and
+ * parser instance, which hold all mutable state of the parse, and applies the
+ * start rule. Thus any number of threads can parse concurrently without
+ * locking.
+ * </p>
+ *
+ * <p>
+ * The parsers are created in production mode (see
+ * {@link ParsingContext#isDiagnostic()}). Use the {@link ParserFactory}
+ * directly to trace a parse.
+ * </p>
+ */
+public final class CompiledGrammar<T> {
+
+    private final Class<?> parserClass;
+
+    private final Function<ParsingInput, T> parse;
+
+    private final Supplier<Function<ParsingInput, T>> reusableParserFactory;
+
+    private CompiledGrammar(Class<?> parserClass, Function<ParsingInput, T> parse,
+            Supplier<Function<ParsingInput, T>> reusableParserFactory) {
+        this.parserClass = parserClass;
+        this.parse = parse;
+        this.reusableParserFactory = reusableParserFactory;
+    }
+
+    /**
+     * Compile a grammar.
+     *
+     * @param parserClass
+     *            class of the parser
+     * @param startRule
+     *            invokes the start rule on a parser instance, for example
+     *            {@code MyParser::input}
+     */
+    public static <C extends ParsingContext<?>, P extends Parser<C>, T> CompiledGrammar<T> compile(
+            Class<P> parserClass, Function<? super P, T> startRule) {
+        Function<ParsingInput, C> contextFactory = createParsingContext(parserClass);
+        Function<C, P> parserFactory = ParserFactory.create(parserClass);
+        ParserFactory.prepare(parserClass);
+        return new CompiledGrammar<>(parserClass,
+                input -> startRule.apply(parserFactory.apply(contextFactory.apply(input))), () -> {
+                    C ctx = contextFactory.apply(new CharSequenceInput(""));
+                    P parser = parserFactory.apply(ctx);
+                    return input -> {
+                        ctx.setInput(input);
+                        return startRule.apply(parser);
+                    };
+                });
+    }
+
+    /**
+     * Create the parsing contexts using a constructor taking the
+     * {@link ParsingInput} if present, otherwise using the constructor taking
+     * the content.
+     */
+    @SuppressWarnings("unchecked")
+    private static <C extends ParsingContext<?>> Function<ParsingInput, C> createParsingContext(
+            Class<? extends Parser<C>> parserClass) {
+        Class<?> contextType = ParserFactory.getParsingContextType(parserClass);
+        try {
+            Constructor<?> constructor = contextType.getConstructor(ParsingInput.class);
+            return input -> {
+                try {
+                    return (C) constructor.newInstance(input);
+                } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+                    throw new RuntimeException("Error while creating instance of parser context", e);
+                }
+            };
+        } catch (NoSuchMethodException e) {
+            Function<String, C> factory = ParserFactory.createParsingContext((Class<Parser<C>>) parserClass);
+            return input -> {
+                C ctx = factory.apply("");
+                ctx.setInput(input);
+                return ctx;
+            };
+        }
+    }
+
+    /**
+     * Parse the given input, using a new parser instance
+     */
+    public T parse(ParsingInput input) {
+        return parse.apply(input);
+    }
+
+    /**
+     * Parse the given content, using a new parser instance
+     */
+    public T parse(CharSequence content) {
+        return parse(new CharSequenceInput(content));
+    }
+
+    /**
+     * Create a parser instance which is reused for all inputs passed to the
+     * returned function. Setting the input resets the state of the parser.
+     * The function must only be used by one thread at a time.
+     */
+    public Function<ParsingInput, T> newReusableParser() {
+        return reusableParserFactory.get();
+    }
+
+    /**
+     * Parse all inputs of the stream, using at most {@code parallelism}
+     * threads. Returns the results in input order. See
+     * {@link BatchParser#parseAll(Stream, java.util.function.Consumer)}.
+     */
+    public List<ParseResult<T>> parseAll(Stream<? extends CharSequence> inputs, int parallelism) {
+        return new BatchParser<>(this, parallelism, null, true).parseAll(inputs);
+    }
+
+    public Class<?> getParserClass() {
+        return parserClass;
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledGrammar[" + parserClass.getName() + "]";
+    }
+}
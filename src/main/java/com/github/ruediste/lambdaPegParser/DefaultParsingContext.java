@@ -6,4 +6,13 @@ public class DefaultParsingContext extends ParsingContext<DefaultParsingState> {
         super(content);
     }
 
+    public DefaultParsingContext(ParsingInput input) {
+        super(input);
+    }
+
+    @Override
+    protected DefaultParsingState createInitialState() {
+        return new DefaultParsingState();
+    }
+
 }
@@ -1,18 +1,57 @@
 package com.github.ruediste.lambdaPegParser;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.function.Consumer;
 
+/**
+ * Event with a list of handlers.
+ *
+ * <p>
+ * The handlers are kept in a copy-on-write array: registering is synchronized
+ * and replaces the array, while firing iterates over the current array without
+ * locking. Thus handlers can be registered from any thread.
+ * </p>
+ */
 public class LambdaPegEvent<T> {
 
-    private List<Consumer<T>> handlers = new ArrayList<>();
+    @SuppressWarnings("rawtypes")
+    private static final Consumer[] NO_HANDLERS = new Consumer[0];
 
-    public void register(Consumer<T> handler) {
-        handlers.add(handler);
+    @SuppressWarnings("unchecked")
+    private volatile Consumer<T>[] handlers = NO_HANDLERS;
+
+    public synchronized void register(Consumer<T> handler) {
+        Consumer<T>[] newHandlers = Arrays.copyOf(handlers, handlers.length + 1);
+        newHandlers[handlers.length] = handler;
+        handlers = newHandlers;
+    }
+
+    /**
+     * Unregister a handler. Handlers are compared by identity. Does nothing if
+     * the handler is not registered.
+     */
+    public synchronized void unregister(Consumer<T> handler) {
+        for (int i = 0; i < handlers.length; i++) {
+            if (handlers[i] == handler) {
+                Consumer<T>[] newHandlers = Arrays.copyOf(handlers, handlers.length - 1);
+                System.arraycopy(handlers, i + 1, newHandlers, i, handlers.length - i - 1);
+                handlers = newHandlers;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Return true if at least one handler is registered. Allows to avoid
+     * creating the event argument if nobody is listening.
+     */
+    public boolean hasHandlers() {
+        return handlers.length != 0;
     }
 
     public void fire(T argument) {
-        handlers.forEach(x -> x.accept(argument));
+        for (Consumer<T> handler : handlers) {
+            handler.accept(argument);
+        }
     }
 }
@@ -0,0 +1,193 @@
+package com.github.ruediste.lambdaPegParser;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Index of the line starts of a {@link ParsingInput}, used to determine the
+ * line of a position (see {@link PositionInfo}).
+ *
+ * <p>
+ * The start indexes of the lines are kept in an int array. The input is
+ * scanned lazily, only as far as required by the positions looked up so far,
+ * so streaming inputs are indexed as they are read. Inputs held in memory
+ * which are larger than {@link #PARALLEL_THRESHOLD} are indexed completely,
+ * scanning the chunks of the input in parallel. Lookups use a binary search.
+ * </p>
+ *
+ * <p>
+ * If an input discards data (see {@link ParsingInput#getFirstAvailableIndex()})
+ * before it has been scanned, the index restarts at the first available
+ * index. The lines before it are not available anymore.
+ * </p>
+ *
+ * <p>
+ * The methods are synchronized, so the index of a context can be shared with
+ * the {@link PositionInfo}s handed out to other threads.
+ * </p>
+ */
+public class LineIndex {
+
+    /**
+     * Minimum number of chars remaining to be scanned to use a parallel scan
+     */
+    public static final int PARALLEL_THRESHOLD = 1 << 20;
+
+    private static final int PARALLEL_CHUNK_SIZE = 1 << 18;
+
+    private final ParsingInput input;
+
+    /**
+     * Start index of each line, ascending
+     */
+    private int[] lineStarts = new int[16];
+    private int lineCount;
+
+    /**
+     * Line number of the first entry of {@link #lineStarts}
+     */
+    private int firstLineNr;
+
+    /**
+     * Index to continue the search for the next line start from
+     */
+    private int scanIndex;
+
+    /**
+     * True if the whole input has been scanned
+     */
+    private boolean complete;
+
+    public LineIndex(ParsingInput input) {
+        this.input = input;
+        restart();
+    }
+
+    private void restart() {
+        lineStarts[0] = input.getFirstAvailableIndex();
+        lineCount = 1;
+        firstLineNr = input.getFirstAvailableLineNr();
+        scanIndex = lineStarts[0];
+    }
+
+    /**
+     * Return the line number (starting at 1) of the line containing the given
+     * index
+     */
+    public synchronized int getLineNr(int index) {
+        return firstLineNr + line(index);
+    }
+
+    /**
+     * Return the start index of the line containing the given index
+     */
+    public synchronized int getLineStart(int index) {
+        return lineStarts[line(index)];
+    }
+
+    /**
+     * Return the end index (exclusive, without the line separator) of the line
+     * containing the given index
+     */
+    public synchronized int getLineEnd(int index) {
+        int line = line(index);
+        if (line + 1 < lineCount)
+            return lineStarts[line + 1] - 1;
+        return input.length();
+    }
+
+    /**
+     * Return the number of lines found so far
+     */
+    public synchronized int getScannedLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Return the position of the line containing the index within
+     * {@link #lineStarts}
+     */
+    private int line(int index) {
+        scanPast(index);
+        int pos = Arrays.binarySearch(lineStarts, 0, lineCount, index);
+        if (pos >= 0)
+            return pos;
+        return Math.max(0, -pos - 2);
+    }
+
+    /**
+     * Scan the input until the start of the line following the given index
+     * has been found, or until the end of the input
+     */
+    private void scanPast(int index) {
+        if (complete || lineStarts[lineCount - 1] > index)
+            return;
+        if (scanIndex < input.getFirstAvailableIndex())
+            restart();
+        if (isRandomAccess(input)) {
+            int length = input.length();
+            if (length - scanIndex >= PARALLEL_THRESHOLD) {
+                scanParallel(length);
+                return;
+            }
+        }
+        while (lineStarts[lineCount - 1] <= index) {
+            int newLine = input.indexOf('\n', scanIndex);
+            if (newLine < 0) {
+                complete = true;
+                return;
+            }
+            scanIndex = newLine + 1;
+            add(scanIndex);
+        }
+    }
+
+    private void add(int lineStart) {
+        if (lineCount == lineStarts.length)
+            lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+        lineStarts[lineCount++] = lineStart;
+    }
+
+    /**
+     * Scan the remaining input, splitting it into chunks scanned in parallel
+     */
+    private void scanParallel(int length) {
+        AbstractCharInput chars = (AbstractCharInput) input;
+        int from = scanIndex;
+        int chunkCount = (int) ((length - (long) from + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE);
+        int[][] chunkLineStarts = IntStream.range(0, chunkCount).parallel().mapToObj(chunk -> {
+            int start = from + chunk * PARALLEL_CHUNK_SIZE;
+            int end = (int) Math.min(length, (long) start + PARALLEL_CHUNK_SIZE);
+            int[] result = new int[16];
+            int count = 0;
+            for (int i = start; i < end; i++) {
+                if (chars.charAt(i) == '\n') {
+                    if (count == result.length)
+                        result = Arrays.copyOf(result, count * 2);
+                    result[count++] = i + 1;
+                }
+            }
+            return Arrays.copyOf(result, count);
+        }).toArray(int[][]::new);
+
+        int total = lineCount;
+        for (int[] starts : chunkLineStarts)
+            total += starts.length;
+        lineStarts = Arrays.copyOf(lineStarts, Math.max(total, 1));
+        for (int[] starts : chunkLineStarts) {
+            System.arraycopy(starts, 0, lineStarts, lineCount, starts.length);
+            lineCount += starts.length;
+        }
+        scanIndex = length;
+        complete = true;
+    }
+
+    /**
+     * Return true if the chars of the input can be accessed from multiple
+     * threads and do not have to be read first
+     */
+    private static boolean isRandomAccess(ParsingInput input) {
+        return input instanceof CharSequenceInput || input instanceof CharArrayInput
+                || input instanceof CharBufferInput;
+    }
+}
@@ -0,0 +1,194 @@
+package com.github.ruediste.lambdaPegParser;
+
+import static java.util.stream.Collectors.joining;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * A set of literals, compiled into a trie, matched by
+ * {@link Parser#OneOfStr(LiteralSet)}.
+ *
+ * <p>
+ * Matching a literal set examines each input character once, instead of
+ * trying each literal in turn. Compiling the trie is relatively expensive, so
+ * instances should be created once, typically in a static field, and reused.
+ * Instances are immutable.
+ * </p>
+ */
+public class LiteralSet<T> {
+
+    /**
+     * Determines which literal is matched if multiple literals match the input
+     */
+    public enum MatchMode {
+        /**
+         * Match the longest literal
+         */
+        LONGEST,
+        /**
+         * Match the literal which has been declared first
+         */
+        FIRST_DECLARED
+    }
+
+    private static class Node {
+        int[] keys = new int[0];
+        Node[] children = new Node[0];
+
+        /**
+         * declaration order of the literal ending at this node, -1 if no
+         * literal ends here
+         */
+        int order = -1;
+
+        Node child(int cp) {
+            int idx = Arrays.binarySearch(keys, cp);
+            return idx < 0 ? null : children[idx];
+        }
+
+        Node getOrAddChild(int cp) {
+            int idx = Arrays.binarySearch(keys, cp);
+            if (idx >= 0)
+                return children[idx];
+            idx = -idx - 1;
+            Node child = new Node();
+            int[] newKeys = new int[keys.length + 1];
+            Node[] newChildren = new Node[keys.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, idx);
+            System.arraycopy(children, 0, newChildren, 0, idx);
+            newKeys[idx] = cp;
+            newChildren[idx] = child;
+            System.arraycopy(keys, idx, newKeys, idx + 1, keys.length - idx);
+            System.arraycopy(children, idx, newChildren, idx + 1, keys.length - idx);
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+    }
+
+    private final Node root = new Node();
+    private final List<T> values = new ArrayList<>();
+    private final MatchMode mode;
+    private final boolean ignoreCase;
+    private final String expectation;
+
+    /**
+     * Create a literal set matching the longest literal. Case is significant.
+     * The values of the map are returned when the corresponding literal is
+     * matched.
+     */
+    public LiteralSet(Map<String, ? extends T> literals) {
+        this(literals, MatchMode.LONGEST, false, null);
+    }
+
+    /**
+     * Create a literal set.
+     *
+     * @param literals
+     *            the literals to match along with the values to return. The
+     *            iteration order of the map determines the declaration order
+     * @param mode
+     *            determines which literal is matched if multiple literals
+     *            match
+     * @param ignoreCase
+     *            if true, the input matches a literal regardless of the case
+     *            of the letters
+     * @param expectation
+     *            the expectation reported if no literal matches. If null, an
+     *            expectation listing all literals is reported
+     */
+    public LiteralSet(Map<String, ? extends T> literals, MatchMode mode, boolean ignoreCase, String expectation) {
+        this.mode = mode;
+        this.ignoreCase = ignoreCase;
+        if (expectation == null)
+            expectation = "one of " + literals.keySet().stream().collect(joining(", "));
+        this.expectation = expectation;
+
+        for (Entry<String, ? extends T> entry : literals.entrySet()) {
+            if (entry.getKey().isEmpty())
+                throw new IllegalArgumentException("Literals may not be empty");
+            Node node = root;
+            for (int cp : entry.getKey().codePoints().toArray()) {
+                node = node.getOrAddChild(fold(cp));
+            }
+            if (node.order == -1) {
+                node.order = values.size();
+                values.add(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Create a literal set matching the longest of the given literals.
+     * Matching returns the matched literal.
+     */
+    public static LiteralSet<String> of(String... literals) {
+        return new LiteralSet<>(toMap(literals));
+    }
+
+    /**
+     * Create a literal set matching the longest of the given literals,
+     * ignoring case. Matching returns the literal as specified here.
+     */
+    public static LiteralSet<String> ofIgnoreCase(String... literals) {
+        return new LiteralSet<>(toMap(literals), MatchMode.LONGEST, true, null);
+    }
+
+    private static Map<String, String> toMap(String... literals) {
+        LinkedHashMap<String, String> map = new LinkedHashMap<>();
+        for (String literal : literals)
+            map.put(literal, literal);
+        return map;
+    }
+
+    private int fold(int cp) {
+        return ignoreCase ? Character.toLowerCase(Character.toUpperCase(cp)) : cp;
+    }
+
+    /**
+     * Match a literal at the current position of the context. If a literal
+     * matches, the input is consumed and the value of the literal is returned.
+     * Otherwise the expectation is registered and a {@link NoMatchException}
+     * is raised.
+     */
+    T match(ParsingContext<?> ctx) {
+        int startIndex = ctx.getIndex();
+        Node node = root;
+        int bestOrder = -1;
+        int bestEndIndex = startIndex;
+        // keep the input after the best match available while reading ahead
+        int mark = ctx.retain();
+        try {
+            while (ctx.hasNext()) {
+                node = node.child(fold(ctx.peek()));
+                if (node == null)
+                    break;
+                ctx.next();
+                if (node.order != -1 && (bestOrder == -1 || mode == MatchMode.LONGEST || node.order < bestOrder)) {
+                    bestOrder = node.order;
+                    bestEndIndex = ctx.getIndex();
+                }
+            }
+        } finally {
+            ctx.release(mark);
+        }
+        ctx.state().index = bestEndIndex;
+        if (bestOrder == -1)
+            throw ctx.noMatch(expectation, startIndex);
+        return values.get(bestOrder);
+    }
+
+    public String getExpectation() {
+        return expectation;
+    }
+
+    @Override
+    public String toString() {
+        return "LiteralSet(" + expectation + ")";
+    }
+}
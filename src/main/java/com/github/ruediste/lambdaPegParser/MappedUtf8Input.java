@@ -0,0 +1,256 @@
+package com.github.ruediste.lambdaPegParser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link ParsingInput} reading an UTF-8 encoded file, which is mapped into
+ * memory using {@link FileChannel#map(MapMode, long, long)}.
+ *
+ * <p>
+ * The input is decoded while parsing, the file is never held on the heap. The
+ * indexes are byte offsets relative to the start of the mapped region. Since
+ * indexes are ints, a region is limited to 2GB. Larger files are parsed one
+ * region after the other. {@link #openRegions(Path, int, int)} splits a file
+ * into regions ending after a delimiter, such that no record is cut in half:
+ * </p>
+ * 
+ * <pre>
+ * for (MappedUtf8Input region : MappedUtf8Input.openRegions(file, 1 &lt;&lt; 30, '\n')) {
+ *     ctx.setInput(region);
+ *     while (ctx.hasNext())
+ *         process(parser.record());
+ * }
+ * </pre>
+ * 
+ * <p>
+ * The file offset of an index is available through {@link #sourceOffset(int)},
+ * which is used by {@link PositionInfo#getSourceOffset()}.
+ * </p>
+ *
+ * <p>
+ * Malformed byte sequences are decoded as U+FFFD, one byte at a time.
+ * </p>
+ */
+public class MappedUtf8Input implements ParsingInput {
+
+    private static final int REPLACEMENT = 0xFFFD;
+
+    private final ByteBuffer buffer;
+    private final long start;
+    private final int length;
+
+    /**
+     * Map the whole file. The file may not be larger than 2GB.
+     */
+    public static MappedUtf8Input open(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IllegalArgumentException(
+                        "File " + file + " is larger than 2GB, use openRegions() to split it into regions");
+            return new MappedUtf8Input(channel, 0, (int) size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Map the region of the file starting at the given file offset
+     */
+    public static MappedUtf8Input open(Path file, long start, int length) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new MappedUtf8Input(channel, start, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Split a file into consecutive regions of at most maxRegionLength bytes,
+     * each ending directly after a delimiter, for example {@code '\n'} if
+     * each line holds a record. The delimiter has to be an ASCII character,
+     * which never occurs within a multi byte sequence. If a region does not
+     * contain the delimiter, it is cut at the last UTF-8 sequence boundary
+     * instead.
+     */
+    public static List<MappedUtf8Input> openRegions(Path file, int maxRegionLength, int delimiter) {
+        if (delimiter < 0 || delimiter >= 0x80)
+            throw new IllegalArgumentException("Delimiter must be an ASCII character");
+        if (maxRegionLength < 4)
+            throw new IllegalArgumentException("maxRegionLength must be at least 4");
+        List<MappedUtf8Input> result = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long regionStart = 0;
+            while (regionStart < size) {
+                int length = (int) Math.min(maxRegionLength, size - regionStart);
+                MappedByteBuffer mapped = channel.map(MapMode.READ_ONLY, regionStart, length);
+                if (regionStart + length < size)
+                    length = regionLength(channel, mapped, regionStart, length, (byte) delimiter);
+                ByteBuffer region = mapped.duplicate();
+                region.limit(length);
+                result.add(new MappedUtf8Input(region.slice(), regionStart, length));
+                regionStart += length;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Determine the length of a region which is followed by more input: up to
+     * and including the last delimiter, or up to the last sequence boundary
+     */
+    private static int regionLength(FileChannel channel, ByteBuffer mapped, long regionStart, int length,
+            byte delimiter) throws IOException {
+        for (int idx = length - 1; idx >= 0; idx--) {
+            if (mapped.get(idx) == delimiter)
+                return idx + 1;
+        }
+
+        // no delimiter, do not start the next region with a continuation
+        // byte
+        ByteBuffer next = ByteBuffer.allocate(1);
+        channel.read(next, regionStart + length);
+        int end = length;
+        int nextByte = next.get(0);
+        while (end > length - 3 && (nextByte & 0xC0) == 0x80) {
+            end--;
+            nextByte = mapped.get(end);
+        }
+        return (nextByte & 0xC0) == 0x80 ? length : end;
+    }
+
+    /**
+     * Map a region of the given channel. The mapping stays valid after the
+     * channel is closed.
+     */
+    public MappedUtf8Input(FileChannel channel, long start, int length) throws IOException {
+        this(channel.map(MapMode.READ_ONLY, start, length), start, length);
+    }
+
+    private MappedUtf8Input(ByteBuffer buffer, long start, int length) {
+        this.buffer = buffer;
+        this.start = start;
+        this.length = length;
+    }
+
+    /**
+     * Return the number of bytes of the UTF-8 sequence starting with the
+     * given byte, or 0 if the byte cannot start a sequence.
+     */
+    private static int sequenceLength(int b) {
+        if (b < 0x80)
+            return 1;
+        if (b < 0xC2)
+            return 0;
+        if (b < 0xE0)
+            return 2;
+        if (b < 0xF0)
+            return 3;
+        if (b < 0xF5)
+            return 4;
+        return 0;
+    }
+
+    private int byteAt(int index) {
+        return buffer.get(index) & 0xFF;
+    }
+
+    /**
+     * Decode the sequence at the given index. Returns -1 if the sequence is
+     * malformed.
+     */
+    private int decode(int index, int sequenceLength) {
+        if (sequenceLength == 0 || index + sequenceLength > length)
+            return -1;
+        int b = byteAt(index);
+        int cp = b & (0xFF >> (sequenceLength + 1));
+        for (int i = 1; i < sequenceLength; i++) {
+            int c = byteAt(index + i);
+            if ((c & 0xC0) != 0x80)
+                return -1;
+            cp = (cp << 6) | (c & 0x3F);
+        }
+        // reject overlong encodings, surrogates and values beyond the unicode
+        // range
+        if (sequenceLength == 3 && (cp < 0x800 || Character.isSurrogate((char) cp)))
+            return -1;
+        if (sequenceLength == 4 && (cp < 0x10000 || cp > Character.MAX_CODE_POINT))
+            return -1;
+        return cp;
+    }
+
+    @Override
+    public boolean hasCodePointAt(int index) {
+        return index < length;
+    }
+
+    @Override
+    public int codePointAt(int index) {
+        int b = byteAt(index);
+        if (b < 0x80)
+            return b;
+        int cp = decode(index, sequenceLength(b));
+        return cp == -1 ? REPLACEMENT : cp;
+    }
+
+    @Override
+    public int nextIndex(int index) {
+        int b = byteAt(index);
+        if (b < 0x80)
+            return index + 1;
+        int sequenceLength = sequenceLength(b);
+        return decode(index, sequenceLength) == -1 ? index + 1 : index + sequenceLength;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public String substring(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = buffer.get(start + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int indexOf(int codePoint, int fromIndex) {
+        if (codePoint < 0x80) {
+            // ASCII bytes never occur within multi byte sequences
+            for (int idx = fromIndex; idx < length; idx++) {
+                if (buffer.get(idx) == codePoint)
+                    return idx;
+            }
+            return -1;
+        }
+        return ParsingInput.super.indexOf(codePoint, fromIndex);
+    }
+
+    /**
+     * Return the file offset of the given index
+     */
+    @Override
+    public long sourceOffset(int index) {
+        return start + index;
+    }
+
+    @Override
+    public String toString() {
+        return "MappedUtf8Input(start: " + start + " length: " + length + ")";
+    }
+}
@@ -0,0 +1,167 @@
+package com.github.ruediste.lambdaPegParser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.ruediste.lambdaPegParser.Parser.RuleCacheKey;
+import com.github.ruediste.lambdaPegParser.Parser.RuleCacheValue;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Limits the memory used to memoize rule results (see {@link Memo}).
+ *
+ * <p>
+ * A budget can be set on the {@link ParsingContext#setMemoBudget(MemoBudget)
+ * context}, where it is used by parsers created afterwards, or on a single
+ * {@link Parser#setMemoBudget(MemoBudget) parser}. The budget limits the
+ * entries of the {@link Parser#ruleCache} and the entries of the
+ * {@link MemoTable}s of a parser separately. Memo tables allocate entries in
+ * chunks of 256 consecutive positions, each chunk counts fully. The chunk
+ * allocated last is never evicted, thus the memo tables keep at least one
+ * chunk even if the budget is smaller. When the budget is exceeded, entries
+ * are evicted according to the {@link Eviction} policy. The
+ * parsing result is not affected, evicted rule results are simply evaluated
+ * again.
+ * </p>
+ *
+ * <p>
+ * Instances are immutable.
+ * </p>
+ */
+public final class MemoBudget {
+
+    /**
+     * Rough estimate of the heap used per memo entry, used by
+     * {@link MemoBudget#maxBytes(long, Eviction)}
+     */
+    public static final int ESTIMATED_ENTRY_BYTES = 64;
+
+    /**
+     * Determines which entries are evicted if the budget is exceeded
+     */
+    public enum Eviction {
+        /**
+         * Evict the least recently used entries
+         */
+        LRU,
+        /**
+         * Evict the entries with the smallest input positions
+         */
+        POSITION_WINDOW,
+        /**
+         * Hold the entries via soft references, letting the garbage collector
+         * evict entries under memory pressure. If a maximum number of entries
+         * is given, the least recently used entries are evicted in addition.
+         */
+        SOFT_REFERENCES
+    }
+
+    private static final MemoBudget UNLIMITED = new MemoBudget(Integer.MAX_VALUE, Eviction.LRU);
+
+    private final int maxEntries;
+    private final Eviction eviction;
+
+    private MemoBudget(int maxEntries, Eviction eviction) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("maxEntries must be positive");
+        this.maxEntries = maxEntries;
+        this.eviction = eviction;
+    }
+
+    /**
+     * No limit, the default
+     */
+    public static MemoBudget unlimited() {
+        return UNLIMITED;
+    }
+
+    /**
+     * Limit the number of memo entries
+     */
+    public static MemoBudget maxEntries(int maxEntries, Eviction eviction) {
+        return new MemoBudget(maxEntries, eviction);
+    }
+
+    /**
+     * Limit the estimated heap used by memo entries, using
+     * {@link #ESTIMATED_ENTRY_BYTES} per entry
+     */
+    public static MemoBudget maxBytes(long maxBytes, Eviction eviction) {
+        return new MemoBudget((int) Math.min(Integer.MAX_VALUE, Math.max(1, maxBytes / ESTIMATED_ENTRY_BYTES)),
+                eviction);
+    }
+
+    /**
+     * Hold all memo entries via soft references, without a fixed limit
+     */
+    public static MemoBudget softReferences() {
+        return new MemoBudget(Integer.MAX_VALUE, Eviction.SOFT_REFERENCES);
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public Eviction getEviction() {
+        return eviction;
+    }
+
+    public boolean isUnlimited() {
+        return maxEntries == Integer.MAX_VALUE && eviction != Eviction.SOFT_REFERENCES;
+    }
+
+    /**
+     * Create the map used as {@link Parser#ruleCache}
+     */
+    Map<RuleCacheKey, RuleCacheValue> createRuleCache() {
+        if (isUnlimited())
+            return new HashMap<>();
+        switch (eviction) {
+        case LRU:
+            return new LinkedHashMap<RuleCacheKey, RuleCacheValue>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<RuleCacheKey, RuleCacheValue> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        case POSITION_WINDOW:
+            return new LinkedHashMap<RuleCacheKey, RuleCacheValue>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<RuleCacheKey, RuleCacheValue> eldest) {
+                    if (size() > maxEntries) {
+                        // evict the left most entries, down to three quarters
+                        // of the budget
+                        List<Integer> indexes = new ArrayList<>(size());
+                        for (RuleCacheKey key : keySet())
+                            indexes.add(key.state.index);
+                        Collections.sort(indexes);
+                        int threshold = indexes.get(size() - maxEntries * 3 / 4 - 1);
+                        keySet().removeIf(key -> key.state.index <= threshold);
+                    }
+                    return false;
+                }
+            };
+        case SOFT_REFERENCES: {
+            CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().softValues();
+            if (maxEntries != Integer.MAX_VALUE)
+                builder.maximumSize(maxEntries);
+            return builder.<RuleCacheKey, RuleCacheValue> build().asMap();
+        }
+        default:
+            throw new IllegalStateException("Unknown eviction " + eviction);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MemoBudget(maxEntries: " + maxEntries + " eviction: " + eviction + ")";
+    }
+}
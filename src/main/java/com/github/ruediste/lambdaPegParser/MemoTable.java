@@ -0,0 +1,380 @@
+package com.github.ruediste.lambdaPegParser;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.function.ObjLongConsumer;
+
+import com.github.ruediste.lambdaPegParser.Parser.RuleCacheKey;
+import com.github.ruediste.lambdaPegParser.Parser.RuleCacheValue;
+import com.github.ruediste.lambdaPegParser.ParsingContext.TextEdit;
+
+/**
+ * Packrat memo table of a single rule without arguments, indexed by input
+ * position.
+ *
+ * <p>
+ * Used instead of {@link Parser#ruleCache} by {@link Memo memoized} rules
+ * without arguments, if the parsing state {@link ParsingState#isMarkable() is
+ * markable}. The table holds one entry per position, consisting of the
+ * {@link ParsingState#mark() marked} start and end states, the result, the end
+ * of the {@link ParsingContext#getExaminedEnd() examined input} and a status.
+ * The entries are stored in parallel arrays, which are allocated in chunks of
+ * consecutive positions, once a position of the chunk is used. Thus looking up
+ * and storing entries does not allocate.
+ * </p>
+ *
+ * <p>
+ * When a new session starts ({@link MemoTables#reset()}), the chunks are kept
+ * and cleared lazily when they are used next. When the input is
+ * {@link ParsingContext#applyEdit(int, int, String) edited}, the entries which
+ * examined the changed input are dropped and the entries after the change are
+ * moved (see {@link #applyEdit(TextEdit, ParsingState)}).
+ * </p>
+ *
+ * <p>
+ * The tables of a parser are managed by {@link MemoTables}, which evicts
+ * chunks according to the {@link MemoBudget}. If the budget uses
+ * {@link MemoBudget.Eviction#SOFT_REFERENCES soft references}, the chunks are
+ * held via soft references.
+ * </p>
+ */
+public class MemoTable {
+
+    /**
+     * Returned by {@link #lookup(ParsingContext, int, long)} if no entry is
+     * present
+     */
+    public static final Object MISS = new Object();
+
+    private static final int CHUNK_BITS = 8;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final byte EMPTY = 0;
+    private static final byte SUCCEEDED = 1;
+    private static final byte FAILED = 2;
+
+    private static class Chunk {
+        final long[] startStates = new long[CHUNK_SIZE];
+        final long[] endStates = new long[CHUNK_SIZE];
+        final Object[] results = new Object[CHUNK_SIZE];
+        final int[] examinedEnds = new int[CHUNK_SIZE];
+        final byte[] status = new byte[CHUNK_SIZE];
+        long lastUsed;
+        int generation;
+
+        /**
+         * Maximum of the {@link #examinedEnds} of the entries
+         */
+        int maxExaminedEnd;
+
+        /**
+         * Clear the entries if they belong to a previous session
+         */
+        void validate(int currentGeneration) {
+            if (generation != currentGeneration) {
+                clear();
+                generation = currentGeneration;
+            }
+        }
+
+        void clear() {
+            Arrays.fill(status, EMPTY);
+            Arrays.fill(results, null);
+            maxExaminedEnd = 0;
+        }
+
+        void clear(int i) {
+            status[i] = EMPTY;
+            results[i] = null;
+        }
+
+        void setExaminedEnd(int i, int examinedEnd) {
+            examinedEnds[i] = examinedEnd;
+            if (examinedEnd > maxExaminedEnd)
+                maxExaminedEnd = examinedEnd;
+        }
+    }
+
+    private final int methodNr;
+
+    private final MemoTables owner;
+
+    private final boolean soft;
+
+    /**
+     * Contains either {@link Chunk}s or soft references to chunks
+     */
+    private Object[] chunks = new Object[4];
+
+    public MemoTable(int methodNr) {
+        this(methodNr, new MemoTables(MemoBudget.unlimited()), false);
+    }
+
+    MemoTable(int methodNr, MemoTables owner, boolean soft) {
+        this.methodNr = methodNr;
+        this.owner = owner;
+        this.soft = soft;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Chunk chunkByNr(int nr) {
+        if (nr >= chunks.length)
+            return null;
+        Object chunk = chunks[nr];
+        if (chunk instanceof Chunk)
+            return (Chunk) chunk;
+        if (chunk == null)
+            return null;
+        Chunk result = ((SoftReference<Chunk>) chunk).get();
+        if (result == null) {
+            // collected by the garbage collector
+            chunks[nr] = null;
+            owner.chunksDropped(1);
+        }
+        return result;
+    }
+
+    private Chunk chunk(int index) {
+        Chunk chunk = chunkByNr(index >>> CHUNK_BITS);
+        if (chunk != null) {
+            chunk.validate(owner.generation);
+            chunk.lastUsed = owner.clock++;
+        }
+        return chunk;
+    }
+
+    private Chunk getOrCreateChunk(int index) {
+        return getOrCreateChunk(index, null);
+    }
+
+    /**
+     * Return the chunk of the given index, creating it if necessary. New
+     * chunks are taken from the recycled chunks if available.
+     */
+    private Chunk getOrCreateChunk(int index, ArrayDeque<Chunk> recycled) {
+        Chunk chunk = chunk(index);
+        if (chunk == null) {
+            int nr = index >>> CHUNK_BITS;
+            if (nr >= chunks.length)
+                chunks = Arrays.copyOf(chunks, Math.max(chunks.length * 2, nr + 1));
+            chunk = recycled == null || recycled.isEmpty() ? new Chunk() : recycled.pop();
+            chunk.generation = owner.generation;
+            chunk.lastUsed = owner.clock++;
+            chunks[nr] = soft ? new SoftReference<>(chunk) : chunk;
+            owner.chunkAllocated(this, nr);
+        }
+        return chunk;
+    }
+
+    /**
+     * Pass the number and last usage of each allocated chunk to the consumer
+     */
+    void collectChunks(ObjLongConsumer<Integer> consumer) {
+        for (int nr = 0; nr < chunks.length; nr++) {
+            Chunk chunk = chunkByNr(nr);
+            if (chunk != null)
+                consumer.accept(nr, chunk.lastUsed);
+        }
+    }
+
+    void dropChunk(int nr) {
+        if (chunks[nr] != null) {
+            chunks[nr] = null;
+            owner.chunksDropped(1);
+        }
+    }
+
+    /**
+     * Lookup the entry for the given position and start state. If the entry
+     * is a success, the state of the context is set to the end state and the
+     * result is returned. If the entry is a failure, a
+     * {@link NoMatchException} is raised. If there is no entry, {@link #MISS}
+     * is returned.
+     */
+    public Object lookup(ParsingContext<?> ctx, int index, long startState) {
+        Chunk chunk = chunk(index);
+        int i = index & CHUNK_MASK;
+        byte status = EMPTY;
+        if (chunk != null && chunk.startStates[i] == startState)
+            status = chunk.status[i];
+        if (ctx.checkedCacheEvent.hasHandlers())
+            ctx.checkedCache(cacheKey(ctx), status == EMPTY ? null : cacheValue(chunk, i));
+        if (status == EMPTY)
+            return MISS;
+        ctx.examined(chunk.examinedEnds[i]);
+        if (status == FAILED)
+            throw ctx.noMatch();
+        ctx.state().reset(chunk.endStates[i]);
+        return chunk.results[i];
+    }
+
+    /**
+     * Store a successful rule evaluation. The end state and the end of the
+     * examined input are taken from the context.
+     */
+    public void put(ParsingContext<?> ctx, int index, long startState, Object result) {
+        Chunk chunk = getOrCreateChunk(index);
+        int i = index & CHUNK_MASK;
+        chunk.startStates[i] = startState;
+        chunk.endStates[i] = ctx.state().mark();
+        chunk.results[i] = result;
+        chunk.setExaminedEnd(i, ctx.getExaminedEnd());
+        chunk.status[i] = SUCCEEDED;
+        if (ctx.putCacheEvent.hasHandlers())
+            ctx.putCache(cacheKey(index, startState), cacheValue(chunk, i));
+    }
+
+    /**
+     * Store a failed rule evaluation. The end of the examined input is taken
+     * from the context.
+     */
+    public void putFailure(ParsingContext<?> ctx, int index, long startState) {
+        Chunk chunk = getOrCreateChunk(index);
+        int i = index & CHUNK_MASK;
+        chunk.startStates[i] = startState;
+        chunk.results[i] = null;
+        chunk.setExaminedEnd(i, ctx.getExaminedEnd());
+        chunk.status[i] = FAILED;
+        if (ctx.putCacheEvent.hasHandlers())
+            ctx.putCache(cacheKey(index, startState), cacheValue(chunk, i));
+    }
+
+    /**
+     * Drop all entries for positions before the given index. Only complete
+     * chunks are dropped.
+     */
+    public void dropBefore(int index) {
+        int end = Math.min(index >>> CHUNK_BITS, chunks.length);
+        for (int nr = 0; nr < end; nr++)
+            dropChunk(nr);
+    }
+
+    /**
+     * Drop all entries
+     */
+    public void clear() {
+        for (int nr = 0; nr < chunks.length; nr++)
+            dropChunk(nr);
+    }
+
+    /**
+     * Update the entries after an edit of the input. Entries which examined
+     * the input up to the start of the edit at most keep their position.
+     * Entries starting after the removed chars are moved by the
+     * {@link TextEdit#getDelta() delta} of the edit. All other entries are
+     * dropped.
+     * 
+     * <p>
+     * The chunks before the edit are only scanned if one of their entries
+     * examined the changed input. The chunks starting with the one containing
+     * the edit are relocated, reusing the chunk instances.
+     * </p>
+     * 
+     * @param scratch
+     *            state used to shift the marked states
+     */
+    void applyEdit(TextEdit edit, ParsingState<?> scratch) {
+        int offset = edit.offset;
+        int removedEnd = edit.offset + edit.removedLength;
+        int delta = edit.getDelta();
+        int firstMoved = Math.min(offset >>> CHUNK_BITS, chunks.length);
+
+        // drop the entries before the edit which examined the changed input
+        for (int nr = 0; nr < firstMoved; nr++) {
+            Chunk chunk = chunkByNr(nr);
+            if (chunk == null || chunk.generation != owner.generation || chunk.maxExaminedEnd <= offset)
+                continue;
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                if (chunk.status[i] != EMPTY && chunk.examinedEnds[i] > offset)
+                    chunk.clear(i);
+            }
+        }
+
+        // detach the remaining chunks
+        Object[] oldChunks = chunks;
+        chunks = Arrays.copyOf(oldChunks, oldChunks.length);
+        int detached = 0;
+        for (int nr = firstMoved; nr < chunks.length; nr++) {
+            if (chunks[nr] != null) {
+                chunks[nr] = null;
+                detached++;
+            }
+        }
+        owner.chunksDropped(detached);
+
+        // re-insert their entries
+        ArrayDeque<Chunk> recycled = new ArrayDeque<>();
+        for (int nr = firstMoved; nr < oldChunks.length; nr++) {
+            Chunk chunk = deref(oldChunks[nr]);
+            if (chunk == null)
+                continue;
+            if (chunk.generation == owner.generation) {
+                for (int i = 0; i < CHUNK_SIZE; i++) {
+                    if (chunk.status[i] == EMPTY)
+                        continue;
+                    int start = (nr << CHUNK_BITS) + i;
+                    int examinedEnd = Math.max(start, chunk.examinedEnds[i]);
+                    if (examinedEnd <= offset)
+                        copyEntry(chunk, i, start, examinedEnd, 0, scratch, recycled);
+                    else if (start >= removedEnd)
+                        copyEntry(chunk, i, start + delta, examinedEnd + delta, delta, scratch, recycled);
+                }
+            }
+            chunk.clear();
+            recycled.push(chunk);
+        }
+    }
+
+    private void copyEntry(Chunk from, int i, int index, int examinedEnd, int delta, ParsingState<?> scratch,
+            ArrayDeque<Chunk> recycled) {
+        Chunk to = getOrCreateChunk(index, recycled);
+        int j = index & CHUNK_MASK;
+        to.startStates[j] = shift(from.startStates[i], delta, scratch);
+        to.endStates[j] = shift(from.endStates[i], delta, scratch);
+        to.results[j] = from.results[i];
+        to.status[j] = from.status[i];
+        to.setExaminedEnd(j, examinedEnd);
+    }
+
+    private static long shift(long mark, int delta, ParsingState<?> scratch) {
+        if (delta == 0)
+            return mark;
+        scratch.reset(mark);
+        scratch.index += delta;
+        return scratch.mark();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Chunk deref(Object chunk) {
+        if (chunk instanceof SoftReference)
+            return ((SoftReference<Chunk>) chunk).get();
+        return (Chunk) chunk;
+    }
+
+    private RuleCacheKey cacheKey(ParsingContext<?> ctx) {
+        RuleCacheKey key = new RuleCacheKey();
+        key.methodNr = methodNr;
+        key.args = new Object[] {};
+        key.state = ctx.stateClone();
+        return key;
+    }
+
+    private RuleCacheKey cacheKey(int index, long startState) {
+        ParsingState<?> state = new ParsingState<>();
+        state.reset(startState);
+        RuleCacheKey key = new RuleCacheKey();
+        key.methodNr = methodNr;
+        key.args = new Object[] {};
+        key.state = state;
+        return key;
+    }
+
+    private RuleCacheValue cacheValue(Chunk chunk, int i) {
+        RuleCacheValue value = new RuleCacheValue();
+        value.result = chunk.results[i];
+        value.failed = chunk.status[i] == FAILED;
+        return value;
+    }
+}
@@ -0,0 +1,157 @@
+package com.github.ruediste.lambdaPegParser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.github.ruediste.lambdaPegParser.MemoBudget.Eviction;
+import com.github.ruediste.lambdaPegParser.ParsingContext.TextEdit;
+
+/**
+ * The {@link MemoTable}s of a parser, indexed by method number. Keeps track of
+ * the allocated chunks and evicts chunks if the {@link MemoBudget} is
+ * exceeded.
+ */
+public class MemoTables {
+
+    private final MemoBudget budget;
+
+    private MemoTable[] tables = new MemoTable[0];
+
+    private int chunkCount;
+
+    /**
+     * Incremented whenever a chunk is used, to determine the least recently
+     * used chunks
+     */
+    long clock;
+
+    /**
+     * Incremented for every session. Chunks of previous sessions are cleared
+     * when used.
+     */
+    int generation;
+
+    public MemoTables(MemoBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Return the memo table of the given method, creating it if necessary
+     */
+    public MemoTable get(int methodNr) {
+        if (methodNr >= tables.length)
+            tables = Arrays.copyOf(tables, methodNr + 1);
+        MemoTable table = tables[methodNr];
+        if (table == null) {
+            table = new MemoTable(methodNr, this, budget.getEviction() == Eviction.SOFT_REFERENCES);
+            tables[methodNr] = table;
+        }
+        return table;
+    }
+
+    /**
+     * Called by the tables after a chunk has been allocated
+     */
+    void chunkAllocated(MemoTable table, int chunkNr) {
+        chunkCount++;
+        if ((long) chunkCount * MemoTable.CHUNK_SIZE > budget.getMaxEntries())
+            evict(table, chunkNr);
+    }
+
+    /**
+     * Called by the tables after chunks have been dropped
+     */
+    void chunksDropped(int count) {
+        chunkCount -= count;
+    }
+
+    private static class ChunkRef {
+        MemoTable table;
+        int nr;
+        long lastUsed;
+
+        ChunkRef(MemoTable table, int nr, long lastUsed) {
+            this.table = table;
+            this.nr = nr;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * Evict chunks, down to three quarters of the budget. The chunk which has
+     * just been allocated is kept.
+     */
+    private void evict(MemoTable allocatedTable, int allocatedNr) {
+        List<ChunkRef> refs = new ArrayList<>();
+        for (MemoTable table : tables) {
+            if (table != null)
+                table.collectChunks((nr, lastUsed) -> {
+                    if (table != allocatedTable || nr != allocatedNr)
+                        refs.add(new ChunkRef(table, nr, lastUsed));
+                });
+        }
+        if (budget.getEviction() == Eviction.POSITION_WINDOW)
+            refs.sort(Comparator.comparingInt(r -> r.nr));
+        else
+            refs.sort(Comparator.comparingLong(r -> r.lastUsed));
+
+        long target = Math.max(1, budget.getMaxEntries() * 3L / 4 / MemoTable.CHUNK_SIZE);
+        for (ChunkRef ref : refs) {
+            if (chunkCount <= target)
+                break;
+            ref.table.dropChunk(ref.nr);
+        }
+    }
+
+    /**
+     * Drop all entries for positions before the given index
+     */
+    public void dropBefore(int index) {
+        for (MemoTable table : tables) {
+            if (table != null)
+                table.dropBefore(index);
+        }
+    }
+
+    /**
+     * Update the entries of all tables after an edit of the input, see
+     * {@link MemoTable#applyEdit(TextEdit, ParsingState)}
+     */
+    public void applyEdit(TextEdit edit, ParsingState<?> scratch) {
+        for (MemoTable table : tables) {
+            if (table != null)
+                table.applyEdit(edit, scratch);
+        }
+    }
+
+    /**
+     * Invalidate all entries in constant time, keeping the allocated chunks
+     * for reuse
+     */
+    public void reset() {
+        generation++;
+    }
+
+    /**
+     * Drop all entries
+     */
+    public void clear() {
+        for (MemoTable table : tables) {
+            if (table != null)
+                table.clear();
+        }
+    }
+
+    /**
+     * Return the number of currently allocated chunks
+     */
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public MemoBudget getBudget() {
+        return budget;
+    }
+}
@@ -1,16 +1,51 @@
 package com.github.ruediste.lambdaPegParser;
 
+import com.github.ruediste.lambdaPegParser.ParsingContext.ErrorDesciption;
+
+/**
+ * Signals that the input did not match the expectations of a rule.
+ * 
+ * <p>
+ * The exception is used for backtracking and thrown very often. Therefore, no
+ * stack trace is captured and a single instance is shared by all failures of a
+ * {@link ParsingContext} (see {@link ParsingContext#noMatch()}). The error
+ * description is only determined when requested. Exceptions escaping from a
+ * parser proxy (see {@link ParserFactory#create(Class)}) carry a copy of the
+ * error description taken when the top level rule failed.
+ * </p>
+ */
 public class NoMatchException extends Error {
     private static final long serialVersionUID = 1L;
-    private final ParsingContext<?> ctx;
+    private final transient ParsingContext<?> ctx;
+    private final transient ErrorDesciption errorDescription;
 
     public NoMatchException(ParsingContext<?> ctx) {
+        this(ctx, null);
+    }
+
+    /**
+     * Create an exception carrying a fixed error description
+     */
+    public NoMatchException(ParsingContext<?> ctx, ErrorDesciption errorDescription) {
+        super(null, null, false, false);
         this.ctx = ctx;
+        this.errorDescription = errorDescription;
+    }
+
+    /**
+     * Return the description of the error. If this exception does not carry a
+     * fixed description, it is determined from the current expectations of
+     * the context.
+     */
+    public ErrorDesciption getErrorDescription() {
+        if (errorDescription != null)
+            return errorDescription;
+        return ctx.getErrorDescription();
     }
 
     @Override
     public String getMessage() {
-        return ctx.getErrorDescription().toString();
+        return getErrorDescription().toString();
     }
 
 }
@@ -0,0 +1,124 @@
+package com.github.ruediste.lambdaPegParser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.github.ruediste.lambdaPegParser.ParsingContext.ErrorDesciption;
+
+/**
+ * Parses large inputs consisting of independent top level records in
+ * parallel.
+ *
+ * <p>
+ * The input is split into chunks at the sync points found by a
+ * {@link SyncPointScanner}. Each chunk is parsed with its own context and
+ * parser instance on a {@link ForkJoinPool}, using a {@link CompiledGrammar}
+ * whose start rule parses a sequence of records up to the end of the input and
+ * returns them as collection. The records of all chunks are returned in input
+ * order.
+ * </p>
+ *
+ * <p>
+ * If a chunk fails to parse, a {@link NoMatchException} is thrown for the
+ * first failing chunk, with the error position and line information mapped
+ * to the complete input. Instances are immutable and can be shared between
+ * threads.
+ * </p>
+ */
+public final class ParallelParser<T> {
+
+    /**
+     * Default minimal chunk size, in characters
+     */
+    public static final int DEFAULT_MIN_CHUNK_SIZE = 64 * 1024;
+
+    private final CompiledGrammar<? extends Collection<? extends T>> grammar;
+    private final SyncPointScanner scanner;
+    private final ForkJoinPool pool;
+    private final int minChunkSize;
+
+    public ParallelParser(CompiledGrammar<? extends Collection<? extends T>> grammar, SyncPointScanner scanner) {
+        this(grammar, scanner, ForkJoinPool.commonPool(), DEFAULT_MIN_CHUNK_SIZE);
+    }
+
+    /**
+     * @param minChunkSize
+     *            minimal number of characters per chunk. Smaller inputs are
+     *            parsed as single chunk.
+     */
+    public ParallelParser(CompiledGrammar<? extends Collection<? extends T>> grammar, SyncPointScanner scanner,
+            ForkJoinPool pool, int minChunkSize) {
+        this.grammar = grammar;
+        this.scanner = scanner;
+        this.pool = pool;
+        this.minChunkSize = Math.max(1, minChunkSize);
+    }
+
+    /**
+     * Determine the start positions of the chunks. Aims for four chunks per
+     * thread of the pool, to balance the load.
+     */
+    List<Integer> split(CharSequence content) {
+        int length = content.length();
+        int chunkCount = (int) Math.max(1, Math.min(pool.getParallelism() * 4L, length / minChunkSize));
+        List<Integer> starts = new ArrayList<>();
+        starts.add(0);
+        for (int i = 1; i < chunkCount; i++) {
+            int desired = (int) ((long) length * i / chunkCount);
+            int last = starts.get(starts.size() - 1);
+            if (desired <= last)
+                continue;
+            int syncPoint = scanner.nextSyncPoint(content, desired);
+            if (syncPoint < 0)
+                break;
+            if (syncPoint > last && syncPoint < length)
+                starts.add(syncPoint);
+        }
+        return starts;
+    }
+
+    /**
+     * Parse the content and return the records of all chunks, in input order
+     */
+    public List<T> parse(CharSequence content) {
+        List<Integer> starts = split(content);
+        List<ForkJoinTask<ChunkResult<T>>> tasks = new ArrayList<>();
+        for (int i = 0; i < starts.size(); i++) {
+            int start = starts.get(i);
+            int end = i + 1 < starts.size() ? starts.get(i + 1) : content.length();
+            tasks.add(pool.submit(() -> parseChunk(content, start, end)));
+        }
+
+        List<T> result = new ArrayList<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            ChunkResult<T> chunkResult = tasks.get(i).join();
+            if (chunkResult.failure != null) {
+                for (int j = i + 1; j < tasks.size(); j++)
+                    tasks.get(j).cancel(false);
+                throw chunkResult.failure;
+            }
+            result.addAll(chunkResult.records);
+        }
+        return result;
+    }
+
+    private static class ChunkResult<T> {
+        Collection<? extends T> records;
+        NoMatchException failure;
+    }
+
+    private ChunkResult<T> parseChunk(CharSequence content, int start, int end) {
+        ChunkResult<T> result = new ChunkResult<>();
+        try {
+            result.records = grammar.parse(new CharSequenceInput(content, start, end));
+        } catch (NoMatchException e) {
+            ErrorDesciption description = e.getErrorDescription();
+            result.failure = new NoMatchException(null, new ErrorDesciption(description.expectations,
+                    new CharSequenceInput(content), start + description.errorPosition));
+        }
+        return result;
+    }
+}
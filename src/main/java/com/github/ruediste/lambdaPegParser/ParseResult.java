@@ -0,0 +1,64 @@
+package com.github.ruediste.lambdaPegParser;
+
+import com.github.ruediste.lambdaPegParser.ParsingContext.ErrorDesciption;
+
+/**
+ * Result of parsing a single input of a batch (see {@link BatchParser}).
+ * Either holds the value returned by the start rule or the description of the
+ * parse error.
+ */
+public final class ParseResult<T> {
+
+    private final long index;
+    private final T value;
+    private final ErrorDesciption error;
+
+    private ParseResult(long index, T value, ErrorDesciption error) {
+        this.index = index;
+        this.value = value;
+        this.error = error;
+    }
+
+    public static <T> ParseResult<T> success(long index, T value) {
+        return new ParseResult<>(index, value, null);
+    }
+
+    public static <T> ParseResult<T> failure(long index, ErrorDesciption error) {
+        return new ParseResult<>(index, null, error);
+    }
+
+    /**
+     * Position of the input within the batch, starting at 0
+     */
+    public long getIndex() {
+        return index;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * Return the value returned by the start rule
+     * 
+     * @throws IllegalStateException
+     *             if parsing failed
+     */
+    public T getValue() {
+        if (error != null)
+            throw new IllegalStateException("Parsing failed: " + error);
+        return value;
+    }
+
+    /**
+     * Return the description of the parse error, or null if parsing succeeded
+     */
+    public ErrorDesciption getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "ParseResult[" + index + ": " + (error == null ? value : "failed") + "]";
+    }
+}
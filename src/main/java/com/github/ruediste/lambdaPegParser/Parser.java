@@ -5,15 +5,20 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.PrimitiveIterator.OfInt;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
 import com.github.ruediste.lambdaPegParser.ParsingContext.ExpectationFrame;
+import com.github.ruediste.lambdaPegParser.ParsingContext.LazyExpectation;
 import com.github.ruediste.lambdaPegParser.ParsingContext.StateSnapshot;
+import com.github.ruediste.lambdaPegParser.ParsingContext.TextEdit;
+import com.github.ruediste.lambdaPegParser.weaving.DelegateClassGenerator;
 
 /**
  * Base class for parser classes.
@@ -29,6 +34,11 @@ public class Parser<TCtx extends ParsingContext<?>> {
 
     private final TCtx ctx;
 
+    /**
+     * Argument array used by the weaved rule methods without arguments
+     */
+    protected static final Object[] NO_ARGS = new Object[] {};
+
     protected HashMap<RuleInvocation, RuleInvocation> currentMethods = new HashMap<>();
 
     public static class RuleCacheKey {
@@ -61,16 +71,72 @@ public class Parser<TCtx extends ParsingContext<?>> {
 
     public static class RuleCacheValue {
         public Object result;
-        public Throwable exception;
+        /**
+         * If true, the rule invocation failed with a {@link NoMatchException}
+         */
+        public boolean failed;
         public StateSnapshot snapshot;
 
+        /**
+         * Exclusive end of the input examined by the rule invocation, see
+         * {@link ParsingContext#getExaminedEnd()}
+         */
+        public int examinedEnd;
+
         @Override
         public String toString() {
-            return "(result: " + result + " exception: " + exception + ")";
+            return "(result: " + result + " failed: " + failed + ")";
         }
     }
 
-    protected Map<RuleCacheKey, RuleCacheValue> ruleCache = new HashMap<>();
+    /**
+     * Cache of the memoized rules with arguments, or if the state is not
+     * markable. See {@link #memoTables} for the other memoized rules.
+     */
+    protected Map<RuleCacheKey, RuleCacheValue> ruleCache;
+
+    /**
+     * Memo tables of the memoized rules without arguments
+     */
+    protected MemoTables memoTables;
+
+    /**
+     * Statistics used to decide which rules are memoized if the parser class
+     * is annotated with {@link AdaptiveMemo}
+     */
+    protected AdaptiveMemoStatistics adaptiveMemoStatistics = new AdaptiveMemoStatistics();
+
+    /**
+     * Return the statistics of the adaptive memoization. Only filled if the
+     * parser class is annotated with {@link AdaptiveMemo}.
+     */
+    public AdaptiveMemoStatistics getAdaptiveMemoStatistics() {
+        return adaptiveMemoStatistics;
+    }
+
+    /**
+     * Return the memo table of the given method, creating it if necessary
+     */
+    protected final MemoTable getMemoTable(int methodNr) {
+        return memoTables.get(methodNr);
+    }
+
+    /**
+     * Set the budget limiting the memory used for memoization. Drops all
+     * memoized results. By default, the budget of the parsing context is used.
+     */
+    public void setMemoBudget(MemoBudget budget) {
+        initMemo(budget);
+    }
+
+    private void initMemo(MemoBudget budget) {
+        ruleCache = budget.createRuleCache();
+        memoTables = new MemoTables(budget);
+    }
+
+    public MemoBudget getMemoBudget() {
+        return memoTables.getBudget();
+    }
 
     /**
      * Flag set to true when a recursive invocation is encountered. While true,
@@ -79,8 +145,107 @@ public class Parser<TCtx extends ParsingContext<?>> {
      */
     protected boolean resultIsRecursive;
 
+    private Consumer<Integer> commitHandler;
+    private Consumer<ParsingInput> inputSetHandler;
+    private Consumer<TextEdit> editHandler;
+
     public Parser(TCtx ctx) {
         this.ctx = ctx;
+        // the delegate forwards to the weaved instance, which keeps the
+        // memoized results and handles the events of the context
+        if (this instanceof DelegateClassGenerator.Delegate)
+            return;
+        initMemo(ctx.getMemoBudget());
+        commitHandler = this::dropCacheBefore;
+        inputSetHandler = input -> resetSession();
+        editHandler = this::applyEdit;
+        ctx.commitEvent.register(commitHandler);
+        ctx.inputSetEvent.register(inputSetHandler);
+        ctx.editEvent.register(editHandler);
+    }
+
+    /**
+     * Unregister the parser from the events of the parsing context. The
+     * context keeps the parsers created on it reachable until they are
+     * detached. Thus parsers created on a shared, long lived context should be
+     * detached once they are not used anymore.
+     */
+    public void detach() {
+        ctx.commitEvent.unregister(commitHandler);
+        ctx.inputSetEvent.unregister(inputSetHandler);
+        ctx.editEvent.unregister(editHandler);
+    }
+
+    /**
+     * Reset all state kept by the parser for the current input, such that the
+     * parser can be used for a new input. Called whenever the input of the
+     * parsing context is set.
+     *
+     * <p>
+     * The memo tables are invalidated in constant time and reused for the new
+     * input, without reallocating them. The rule cache, used for rules with
+     * arguments, is cleared if it is not empty. The statistics of
+     * {@link AdaptiveMemo adaptive memoization} are kept.
+     * </p>
+     */
+    public void resetSession() {
+        memoTables.reset();
+        if (!ruleCache.isEmpty())
+            ruleCache.clear();
+        if (!currentMethods.isEmpty())
+            currentMethods.clear();
+        resultIsRecursive = false;
+        adaptiveMemoStatistics.inputChanged();
+    }
+
+    /**
+     * Update the memoized rule results after an
+     * {@link ParsingContext#applyEdit(int, int, String) edit of the input}.
+     * Results which examined the input up to the start of the edit at most
+     * are kept, results starting after the removed chars are moved by the
+     * {@link TextEdit#getDelta() delta} of the edit, all other results are
+     * dropped.
+     * 
+     * <p>
+     * Private, since the delegate of the weaved class would forward the event
+     * to the weaved instance, updating the memoized results twice.
+     * </p>
+     */
+    private void applyEdit(TextEdit edit) {
+        memoTables.applyEdit(edit, ctx.stateClone());
+        if (!ruleCache.isEmpty()) {
+            int removedEnd = edit.offset + edit.removedLength;
+            int delta = edit.getDelta();
+            List<Map.Entry<RuleCacheKey, RuleCacheValue>> entries = new ArrayList<>(ruleCache.entrySet());
+            ruleCache.clear();
+            for (Map.Entry<RuleCacheKey, RuleCacheValue> entry : entries) {
+                RuleCacheKey key = entry.getKey();
+                RuleCacheValue value = entry.getValue();
+                int start = key.state.index;
+                int examinedEnd = Math.max(start, value.examinedEnd);
+                if (examinedEnd <= edit.offset)
+                    ruleCache.put(key, value);
+                else if (start >= removedEnd) {
+                    key.state.index += delta;
+                    value.snapshot = ctx.shift(value.snapshot, delta);
+                    value.examinedEnd = examinedEnd + delta;
+                    ruleCache.put(key, value);
+                }
+            }
+        }
+        if (!currentMethods.isEmpty())
+            currentMethods.clear();
+        resultIsRecursive = false;
+    }
+
+    /**
+     * Drop the memoized rule results for positions before the given index.
+     * Called when the parsing context {@link ParsingContext#commit() commits}
+     * to a position.
+     */
+    protected void dropCacheBefore(int index) {
+        ruleCache.keySet().removeIf(key -> key.state.index < index);
+        memoTables.dropBefore(index);
     }
 
     /**
@@ -145,6 +310,23 @@ public class Parser<TCtx extends ParsingContext<?>> {
         }
     }
 
+    /**
+     * Commit to the current input position. Afterwards, enclosing choices (
+     * {@link #FirstOf}, {@link #Opt}, {@link #ZeroOrMore}, ...) do not
+     * backtrack to positions before it: if matching fails after the commit,
+     * they fail as well instead of trying alternatives. Memoized results left
+     * of the position are dropped and streaming inputs can discard the input.
+     * 
+     * <p>
+     * Typically used after a keyword or at the end of a statement, allowing
+     * long inputs to be parsed in bounded memory. Committing within
+     * {@link #Test} or {@link #Not} makes them fail.
+     * </p>
+     */
+    public final void Commit() {
+        ctx.commit();
+    }
+
     /**
      * Matches the end of the input
      */
@@ -160,7 +342,7 @@ public class Parser<TCtx extends ParsingContext<?>> {
      * raised.
      */
     public void Not(Runnable runnable, String expectation) {
-        StateSnapshot snapshot = ctx.snapshot();
+        int mark = ctx.mark();
         boolean success = false;
         try {
             runnable.run();
@@ -168,7 +350,8 @@ public class Parser<TCtx extends ParsingContext<?>> {
         } catch (NoMatchException e) {
             // swallow
         } finally {
-            snapshot.restore();
+            ctx.reset(mark);
+            ctx.release(mark);
         }
         if (success)
             throw ctx.noMatch(expectation);
@@ -178,11 +361,12 @@ public class Parser<TCtx extends ParsingContext<?>> {
      * Match the given runnable. The input position is not advanced.
      */
     public void Test(Runnable runnable) {
-        StateSnapshot snapshot = ctx.snapshot();
+        int mark = ctx.mark();
         try {
             runnable.run();
         } finally {
-            snapshot.restore();
+            ctx.reset(mark);
+            ctx.release(mark);
         }
     }
 
@@ -190,11 +374,12 @@ public class Parser<TCtx extends ParsingContext<?>> {
      * Match the given runnable. The input position is not advanced.
      */
     public <T> T Test(Supplier<T> term) {
-        StateSnapshot snapshot = ctx.snapshot();
+        int mark = ctx.mark();
         try {
             return term.get();
         } finally {
-            snapshot.restore();
+            ctx.reset(mark);
+            ctx.release(mark);
         }
     }
 
@@ -207,13 +392,15 @@ public class Parser<TCtx extends ParsingContext<?>> {
         for (Runnable choice : choices) {
             if (choice == null)
                 continue;
-            StateSnapshot snapshot = ctx.snapshot();
+            int mark = ctx.mark();
             try {
                 choice.run();
                 return;
             } catch (NoMatchException e) {
                 // swallow, restore
-                snapshot.restore();
+                ctx.reset(mark);
+            } finally {
+                ctx.release(mark);
             }
         }
         throw ctx.noMatch();
@@ -272,12 +459,75 @@ public class Parser<TCtx extends ParsingContext<?>> {
         for (Supplier<? extends T> choice : choices) {
             if (choice == null)
                 continue;
-            StateSnapshot snapshot = ctx.snapshot();
+            int mark = ctx.mark();
+            try {
+                return choice.get();
+            } catch (NoMatchException e) {
+                // swallow, restore
+                ctx.reset(mark);
+            } finally {
+                ctx.release(mark);
+            }
+        }
+        throw ctx.noMatch();
+    }
+
+    /**
+     * Variant of {@link #FirstOf(Runnable...)} the weaver replaces calls with
+     * if the first characters of some choices are known. Choices which cannot
+     * match the next input character are skipped, after registering the
+     * expectation they would have reported. The predictions contain null for
+     * the choices whose first characters are unknown.
+     */
+    protected final void PredictedFirstOf(Runnable[] choices, ChoicePrediction[] prediction) {
+        int cp = ctx.hasNext() ? ctx.peek() : -1;
+        for (int i = 0; i < choices.length; i++) {
+            Runnable choice = choices[i];
+            if (choice == null)
+                continue;
+            if (prediction[i] != null && !prediction[i].matches(cp)) {
+                ctx.registerExpectation(prediction[i].getExpectation());
+                continue;
+            }
+            int mark = ctx.mark();
+            try {
+                choice.run();
+                return;
+            } catch (NoMatchException e) {
+                // swallow, restore
+                ctx.reset(mark);
+            } finally {
+                ctx.release(mark);
+            }
+        }
+        throw ctx.noMatch();
+    }
+
+    /**
+     * Variant of {@link #FirstOf(Supplier...)} the weaver replaces calls with
+     * if the first characters of some choices are known. Choices which cannot
+     * match the next input character are skipped, after registering the
+     * expectation they would have reported. The predictions contain null for
+     * the choices whose first characters are unknown.
+     */
+    protected final <T> T PredictedFirstOf(Supplier<? extends T>[] choices, ChoicePrediction[] prediction) {
+        int cp = ctx.hasNext() ? ctx.peek() : -1;
+        for (int i = 0; i < choices.length; i++) {
+            Supplier<? extends T> choice = choices[i];
+            if (choice == null)
+                continue;
+            if (prediction[i] != null && !prediction[i].matches(cp)) {
+                ctx.registerExpectation(prediction[i].getExpectation());
+                continue;
+            }
+            int mark = ctx.mark();
             try {
                 return choice.get();
             } catch (NoMatchException e) {
                 // swallow, restore
-                snapshot.restore();
+                ctx.reset(mark);
+            } finally {
+                ctx.release(mark);
             }
         }
         throw ctx.noMatch();
@@ -291,12 +541,14 @@ public class Parser<TCtx extends ParsingContext<?>> {
         for (Supplier<? extends T> choice : choices) {
             if (choice == null)
                 continue;
-            StateSnapshot snapshot = ctx.snapshot();
+            int mark = ctx.mark();
             try {
                 return choice.get();
             } catch (NoMatchException e) {
                 // swallow, restore
-                snapshot.restore();
+                ctx.reset(mark);
+            } finally {
+                ctx.release(mark);
             }
         }
         throw ctx.noMatch();
@@ -308,13 +560,15 @@ public class Parser<TCtx extends ParsingContext<?>> {
      */
     public final void ZeroOrMore(Runnable term) {
         while (true) {
-            StateSnapshot snapshot = ctx.snapshot();
+            int mark = ctx.mark();
             try {
                 term.run();
             } catch (NoMatchException e) {
                 // swallow, restore, break loop
-                snapshot.restore();
+                ctx.reset(mark);
                 break;
+            } finally {
+                ctx.release(mark);
             }
         }
     }
@@ -326,13 +580,15 @@ public class Parser<TCtx extends ParsingContext<?>> {
     public final <T> Collection<T> ZeroOrMore(Supplier<T> term) {
         ArrayList<T> parts = new ArrayList<>();
         while (true) {
-            StateSnapshot snapshot = ctx.snapshot();
+            int mark = ctx.mark();
             try {
                 parts.add(term.get());
             } catch (NoMatchException e) {
                 // swallow, restore, break loop
-                snapshot.restore();
+                ctx.reset(mark);
                 break;
+            } finally {
+                ctx.release(mark);
             }
         }
         return parts;
@@ -417,13 +673,15 @@ public class Parser<TCtx extends ParsingContext<?>> {
      * return the result, otherwise {@link java.util.Optional#empty()}
      */
     public final <T> Optional<T> Opt(Supplier<T> term) {
-        StateSnapshot snapshot = ctx.snapshot();
+        int mark = ctx.mark();
         try {
             return Optional.ofNullable(term.get());
         } catch (NoMatchException e) {
             // swallow, restore, break loop
-            snapshot.restore();
+            ctx.reset(mark);
             return Optional.empty();
+        } finally {
+            ctx.release(mark);
         }
     }
 
@@ -439,6 +697,37 @@ public class Parser<TCtx extends ParsingContext<?>> {
         return result;
     }
 
+    /**
+     * Match one or more chars contained in the given class. If no matching
+     * character is found, report the description of the class as unmet
+     * expectation.
+     */
+    public final String OneOrMoreChars(CharClass chars) {
+        String result = ZeroOrMoreChars(chars);
+        if (result.isEmpty()) {
+            throw ctx.noMatch(chars.getDescription());
+        }
+        return result;
+    }
+
+    /**
+     * Match zero or more chars contained in the given class.
+     */
+    public final String ZeroOrMoreChars(CharClass chars) {
+        int startIndex = ctx.getIndex();
+        // keep the matched chars available in the input
+        int mark = ctx.retain();
+        try {
+            while (ctx.hasNext() && chars.test(ctx.peek())) {
+                ctx.next();
+            }
+            ctx.registerExpectation(chars.getDescription());
+            return ctx.getInput().substring(startIndex, ctx.getIndex());
+        } finally {
+            ctx.release(mark);
+        }
+    }
+
     /**
      * Match zero or more chars matching the criteria.
      */
@@ -462,13 +751,15 @@ public class Parser<TCtx extends ParsingContext<?>> {
     public final <T> Collection<T> OneOrMore(Supplier<T> term) {
         ArrayList<T> parts = new ArrayList<>();
         while (true) {
-            StateSnapshot snapshot = ctx.snapshot();
+            int mark = ctx.mark();
             try {
                 parts.add(term.get());
             } catch (NoMatchException e) {
                 // swallow, restore, break loop
-                snapshot.restore();
+                ctx.reset(mark);
                 break;
+            } finally {
+                ctx.release(mark);
             }
         }
         if (parts.isEmpty()) {
@@ -483,14 +774,16 @@ public class Parser<TCtx extends ParsingContext<?>> {
     public final void OneOrMore(Runnable term) {
         boolean found = false;
         while (true) {
-            StateSnapshot snapshot = ctx.snapshot();
+            int mark = ctx.mark();
             try {
                 term.run();
                 found = true;
             } catch (NoMatchException e) {
                 // swallow, restore, break loop
-                snapshot.restore();
+                ctx.reset(mark);
                 break;
+            } finally {
+                ctx.release(mark);
             }
         }
         if (!found) {
@@ -533,15 +826,14 @@ public class Parser<TCtx extends ParsingContext<?>> {
      */
     public final <T> T Atomic(String expectation, Supplier<T> term) {
         int startIdx = ctx.getIndex();
-        ExpectationFrame oldFrame = ctx.getExpectationFrame();
-        ctx.setNewExpectationFrame();
+        ExpectationFrame oldFrame = ctx.pushExpectationFrame();
         try {
             return term.get();
         } catch (NoMatchException e) {
             oldFrame.registerExpectation(startIdx, expectation);
             throw e;
         } finally {
-            ctx.setExpectationFrame(oldFrame);
+            ctx.popExpectationFrame(oldFrame);
         }
     }
 
@@ -552,18 +844,18 @@ public class Parser<TCtx extends ParsingContext<?>> {
      * the right which has been reached.
      */
     public final <T> T Expect(String expectation, Supplier<T> term) {
-        ExpectationFrame oldFrame = ctx.getExpectationFrame();
-        ExpectationFrame newFrame = ctx.setNewExpectationFrame();
+        ExpectationFrame oldFrame = ctx.pushExpectationFrame();
         try {
             return term.get();
         } catch (NoMatchException e) {
-            ctx.setExpectationFrame(oldFrame);
+            int index = ctx.getExpectationFrame().index;
+            ctx.popExpectationFrame(oldFrame);
             oldFrame = null;
-            ctx.registerExpectation(expectation, newFrame.index);
+            ctx.registerExpectation(expectation, index);
             throw e;
         } finally {
             if (oldFrame != null)
-                ctx.setExpectationFrame(oldFrame);
+                ctx.popExpectationFrame(oldFrame);
         }
     }
 
@@ -627,6 +919,16 @@ public class Parser<TCtx extends ParsingContext<?>> {
             return result.get();
     }
 
+    /**
+     * Match one of the literals of the given set and return the value
+     * associated with the matched literal. Unlike a {@link #FirstOf} of
+     * {@link #Str}s, the input is examined only once. If no literal matches,
+     * the single expectation of the set is reported.
+     */
+    public final <T> T OneOfStr(LiteralSet<T> literals) {
+        return literals.match(ctx);
+    }
+
     /**
      * Match a character using the given predicate which is evaluated against
      * the next code point in the input. If the match fails, the specified
@@ -644,6 +946,21 @@ public class Parser<TCtx extends ParsingContext<?>> {
 
     }
 
+    /**
+     * Match a character contained in the given class. If the match fails, the
+     * description of the class is reported as expectation.
+     */
+    public final String Char(CharClass chars) {
+        int startIndex = ctx.getIndex();
+        if (ctx.hasNext()) {
+            int cp = ctx.next();
+            if (chars.test(cp)) {
+                return new String(Character.toChars(cp));
+            }
+        }
+        throw ctx.noMatch(chars.getDescription(), startIndex);
+    }
+
     /**
      * Match all chars except the ones specified
      */
@@ -651,11 +968,39 @@ public class Parser<TCtx extends ParsingContext<?>> {
         int startIndex = ctx.getIndex();
         if (ctx.hasNext()) {
             int cp = ctx.next();
-            if (chars.codePoints().allMatch(x -> x != cp)) {
+            if (chars.indexOf(cp) < 0) {
                 return String.valueOf(Character.toChars(cp));
             }
         }
-        throw ctx.noMatch("any char except " + chars, startIndex);
+        if (ctx.isExpectationRelevant(startIndex))
+            ctx.registerExpectation(new NoneOfExpectation(chars), startIndex);
+        throw ctx.noMatch();
+    }
+
+    /**
+     * Expectation reported by {@link #NoneOf(String)}
+     */
+    private static class NoneOfExpectation implements LazyExpectation {
+        private final String chars;
+
+        NoneOfExpectation(String chars) {
+            this.chars = chars;
+        }
+
+        @Override
+        public String describe() {
+            return "any char except " + chars;
+        }
+
+        @Override
+        public int hashCode() {
+            return chars.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof NoneOfExpectation && chars.equals(((NoneOfExpectation) obj).chars);
+        }
     }
 
     /**
@@ -670,12 +1015,52 @@ public class Parser<TCtx extends ParsingContext<?>> {
                 return new String(Character.toChars(cp));
             }
         }
+        if (ctx.isExpectationRelevant(startIndex))
+            ctx.registerExpectation(new CharRangeExpectation(first, last), startIndex);
+        throw ctx.noMatch();
+    }
+
+    /**
+     * Expectation reported by {@link #CharRange(int, int)}
+     */
+    private static class CharRangeExpectation implements LazyExpectation {
+        private final int first;
+        private final int last;
+
+        CharRangeExpectation(int first, int last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        public String describe() {
+            return charRangeExpectation(first, last);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * first + last;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CharRangeExpectation))
+                return false;
+            CharRangeExpectation other = (CharRangeExpectation) obj;
+            return first == other.first && last == other.last;
+        }
+    }
+
+    /**
+     * Return the expectation reported by {@link #CharRange(int, int)}
+     */
+    static String charRangeExpectation(int first, int last) {
         StringBuilder sb = new StringBuilder();
         sb.append("character between ");
         sb.appendCodePoint(first);
         sb.append(" and ");
         sb.appendCodePoint(last);
-        throw ctx.noMatch(sb.toString(), startIndex);
+        return sb.toString();
     }
 
     public TCtx getParsingContext() {
@@ -5,10 +5,11 @@ import java.io.InputStream;
 import java.io.PrintWriter;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
@@ -18,20 +19,21 @@ import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.RemappingMethodAdapter;
 import org.objectweb.asm.commons.SimpleRemapper;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
 import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.util.CheckClassAdapter;
 
+import com.github.ruediste.lambdaPegParser.weaving.DelegateClassGenerator;
+import com.github.ruediste.lambdaPegParser.weaving.FirstSetAnalyzer;
+import com.github.ruediste.lambdaPegParser.weaving.LeftRecursionAnalyzer;
 import com.github.ruediste.lambdaPegParser.weaving.LocalVariableShifter;
 import com.github.ruediste.lambdaPegParser.weaving.MethodCallInliner;
 import com.github.ruediste.lambdaPegParser.weaving.MinMaxLineMethodAdapter;
 import com.github.ruediste.lambdaPegParser.weaving.PrototypeCustomizer;
+import com.google.common.base.Suppliers;
 import com.google.common.io.ByteStreams;
 import com.google.common.reflect.TypeToken;
 
-import net.sf.cglib.proxy.Enhancer;
-import net.sf.cglib.proxy.MethodInterceptor;
-import net.sf.cglib.proxy.MethodProxy;
-
 /**
  * Factory for instances of parser classes, derived from {@link Parser}.
  */
@@ -39,6 +41,10 @@ public class ParserFactory {
 
     public static class WeavedClassLoader extends ClassLoader {
 
+        static {
+            registerAsParallelCapable();
+        }
+
         private String parserClassName;
         private byte[] weavedByteCode;
 
@@ -48,24 +54,35 @@ public class ParserFactory {
             this.weavedByteCode = weavedByteCode;
         }
 
+        /**
+         * Defines the weaved parser class and its nested classes, each once.
+         * All other classes are loaded by the parent.
+         */
         @Override
-        public Class<?> loadClass(String name) throws ClassNotFoundException {
-
-            if (name.equals(parserClassName)) {
-                defineClass(parserClassName, weavedByteCode, 0, weavedByteCode.length);
-            }
-
-            if (name.startsWith(parserClassName) && name.substring(parserClassName.length()).startsWith("$")) {
-                InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
-                byte[] bb;
-                try {
-                    bb = ByteStreams.toByteArray(in);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> cls = findLoadedClass(name);
+                if (cls == null) {
+                    if (name.equals(parserClassName)) {
+                        cls = defineClass(parserClassName, weavedByteCode, 0, weavedByteCode.length);
+                    } else if (name.startsWith(parserClassName)
+                            && name.substring(parserClassName.length()).startsWith("$")) {
+                        byte[] bb;
+                        try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                            if (in == null)
+                                throw new ClassNotFoundException(name);
+                            bb = ByteStreams.toByteArray(in);
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                        cls = defineClass(name, bb, 0, bb.length);
+                    } else
+                        return super.loadClass(name, resolve);
                 }
-                return defineClass(name, bb, 0, bb.length);
+                if (resolve)
+                    resolveClass(cls);
+                return cls;
             }
-            return super.loadClass(name);
         }
     }
 
@@ -132,86 +149,155 @@ public class ParserFactory {
         }
     }
 
+    /**
+     * Parse all inputs of the stream with the given start rule, using at most
+     * {@code parallelism} threads. The parser instances are reused for
+     * multiple inputs. Parse errors are reported as failed results. The
+     * results are returned in input order.
+     * 
+     * @see BatchParser
+     */
+    public static <C extends ParsingContext<?>, P extends Parser<C>, T> List<ParseResult<T>> parseAll(
+            Class<P> parserClass, Stream<? extends CharSequence> inputs, Function<? super P, T> startRule,
+            int parallelism) {
+        return CompiledGrammar.compile(parserClass, startRule).parseAll(inputs, parallelism);
+    }
+
     public static <C extends ParsingContext<?>, T extends Parser<C>> T create(Class<T> cls, C ctx) {
         return create(cls).apply(ctx);
     }
 
     /**
-     * Instantiate a weaved instance of a parser class and return a proxy
-     * delegating to the instantiated parser.
+     * Instantiate a weaved instance of a parser class and return a delegate
+     * forwarding the invocations to the instantiated parser. The delegate is a
+     * subclass of the parser class generated once per parser class (see
+     * {@link DelegateClassGenerator}).
      */
+    @SuppressWarnings("unchecked")
     public static <C extends ParsingContext<?>, T extends Parser<C>> Function<C, T> create(Class<T> cls) {
-        Function<ParsingContext<?>, Object> weavedParserFactory = instantiateWeavedParser(cls);
-        Class<?> parsingContextType = getParsingContextType(cls);
-
+        WeavedParserClasses classes = weavedParserClasses.get(cls);
         return ctx -> {
-            Object weavedParser = weavedParserFactory.apply(ctx);
-            Enhancer e = new Enhancer();
-            e.setSuperclass(cls);
-
-            e.setCallback(new MethodInterceptor() {
-
-                @Override
-                public Object intercept(Object obj, Method method, Object[] args, MethodProxy proxy) throws Throwable {
-                    Method m = findMethod(weavedParser.getClass().getMethods(), method.getName(),
-                            method.getParameterTypes());
-                    if (m == null) {
-                        m = findMethod(weavedParser.getClass(), method.getName(), method.getParameterTypes());
-                    }
-                    m.setAccessible(true);
-                    try {
-                        return m.invoke(weavedParser, args);
-                    } catch (InvocationTargetException e) {
-                        throw e.getCause();
-                    }
-                }
+            WeavedParserClass weaved = classes.get(ctx);
+            Object weavedParser = weaved.instantiate(ctx);
+            try {
+                return (T) weaved.getDelegateConstructor().newInstance(ctx, weavedParser);
+            } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+                throw new RuntimeException("Error while instantiating parser delegate", e);
+            }
+        };
+    }
 
-                private Method findMethod(Class<?> cls, String methodName, Class<?>[] parameterTypes)
-                        throws NoSuchMethodException, SecurityException {
-                    if (cls == null)
-                        return null;
-                    Method m = findMethod(cls.getDeclaredMethods(), methodName, parameterTypes);
-                    return m == null ? findMethod(cls.getSuperclass(), methodName, parameterTypes) : m;
-                }
+    /**
+     * The two variants of a weaved parser class: one firing the rule events of
+     * the parsing context and one omitting them. The variants are weaved on
+     * demand, at most once. The variant is chosen based on
+     * {@link ParsingContext#isDiagnostic()} when the parser is instantiated.
+     */
+    private static class WeavedParserClasses {
+        private final Supplier<WeavedParserClass> production;
+        private final Supplier<WeavedParserClass> diagnostic;
 
-                private Method findMethod(Method[] candidates, String methodName, Class<?>[] parameterTypes) {
-                    for (Method m : candidates) {
-                        if (methodName.equals(m.getName()) && Arrays.equals(parameterTypes, m.getParameterTypes()))
-                            return m;
-                    }
-                    return null;
-                }
-            });
+        WeavedParserClasses(Class<?> parserClass) {
+            production = Suppliers.memoize(() -> new WeavedParserClass(parserClass, false))::get;
+            diagnostic = Suppliers.memoize(() -> new WeavedParserClass(parserClass, true))::get;
+        }
 
-            return cls.cast(e.create(new Class[] { parsingContextType }, new Object[] { ctx }));
-        };
+        WeavedParserClass get(ParsingContext<?> ctx) {
+            return (ctx.isDiagnostic() ? diagnostic : production).get();
+        }
 
+        void prepare() {
+            production.get().getDelegateConstructor();
+        }
     }
 
-    private static Function<ParsingContext<?>, Object> instantiateWeavedParser(Class<?> parserClass) {
-        try {
-            String parserClassName = parserClass.getName();
-            Class<?> weavedClass = new WeavedClassLoader(parserClass.getClassLoader(), parserClassName,
-                    weaveClass(parserClass)).loadClass(parserClassName);
-            Constructor<?> constructor = weavedClass.getConstructor(getParsingContextType(weavedClass));
-            constructor.setAccessible(true);
-            return ctx -> {
-                try {
-                    return constructor.newInstance(ctx);
-                } catch (Exception e) {
-                    throw new RuntimeException("Error while instantiating parser class", e);
-                }
-            };
-        } catch (ClassNotFoundException | NoSuchMethodException | SecurityException | IllegalArgumentException e) {
-            throw new RuntimeException("Error while weaving and instantiating parser class", e);
+    /**
+     * A weaved parser class, along with the delegate class generated on demand
+     */
+    private static class WeavedParserClass {
+        private final Class<?> parserClass;
+        private final boolean diagnostic;
+        private final Constructor<?> constructor;
+        private final Supplier<Constructor<?>> delegateConstructor;
+
+        WeavedParserClass(Class<?> parserClass, boolean diagnostic) {
+            this.parserClass = parserClass;
+            this.diagnostic = diagnostic;
+            try {
+                String parserClassName = parserClass.getName();
+                byte[] weavedByteCode = AheadOfTimeWeaving.readWeavedClass(parserClass, diagnostic);
+                if (weavedByteCode == null)
+                    weavedByteCode = weaveClass(parserClass, diagnostic);
+                Class<?> weavedClass = new WeavedClassLoader(parserClass.getClassLoader(), parserClassName,
+                        weavedByteCode).loadClass(parserClassName);
+                constructor = weavedClass.getConstructor(getParsingContextType(weavedClass));
+                constructor.setAccessible(true);
+            } catch (ClassNotFoundException | NoSuchMethodException | SecurityException
+                    | IllegalArgumentException e) {
+                throw new RuntimeException("Error while weaving and instantiating parser class", e);
+            }
+            delegateConstructor = Suppliers.memoize(() -> DelegateClassGenerator.defineDelegateClass(parserClass,
+                    constructor.getDeclaringClass(), getParsingContextType(parserClass),
+                    diagnostic ? "Diagnostic" : "Production"))::get;
+        }
+
+        Object instantiate(ParsingContext<?> ctx) {
+            if (!diagnostic)
+                ctx.productionParserCreated();
+            try {
+                return constructor.newInstance(ctx);
+            } catch (Exception e) {
+                throw new RuntimeException("Error while instantiating parser class " + parserClass.getName()
+                        + (diagnostic ? " (diagnostic)" : ""), e);
+            }
+        }
+
+        Constructor<?> getDelegateConstructor() {
+            return delegateConstructor.get();
         }
     }
 
-    private static Class<?> getParsingContextType(Class<?> parserClass) {
+    /**
+     * Weaved parser classes, by parser class. Since the values are attached
+     * to the parser classes, the weaved classes can be unloaded together with
+     * the class loader of the parser class.
+     */
+    private static final ClassValue<WeavedParserClasses> weavedParserClasses = new ClassValue<WeavedParserClasses>() {
+        @Override
+        protected WeavedParserClasses computeValue(Class<?> parserClass) {
+            return new WeavedParserClasses(parserClass);
+        }
+    };
+
+    /**
+     * Weave the parser class and generate the delegate class ahead of the
+     * first instantiation. Only the production variant is prepared, the
+     * diagnostic variant is still weaved on demand.
+     */
+    static void prepare(Class<?> parserClass) {
+        weavedParserClasses.get(parserClass).prepare();
+    }
+
+    /**
+     * Return a function instantiating the weaved parser class. The class is
+     * weaved once and shared by all parsers of the parser class.
+     */
+    private static Function<ParsingContext<?>, Object> instantiateWeavedParser(Class<?> parserClass) {
+        WeavedParserClasses classes = weavedParserClasses.get(parserClass);
+        return ctx -> classes.get(ctx).instantiate(ctx);
+    }
+
+    static Class<?> getParsingContextType(Class<?> parserClass) {
         return TypeToken.of(parserClass).resolveType(Parser.class.getTypeParameters()[0]).getRawType();
     }
 
-    private static byte[] weaveClass(Class<?> parserClass) {
+    /**
+     * @param diagnostic
+     *            if true, the weaved rule methods fire the rule events of the
+     *            parsing context. Otherwise the code collecting the logging
+     *            information is dead and removed by the JIT.
+     */
+    static byte[] weaveClass(Class<?> parserClass, boolean diagnostic) {
         String internalParserClassName = parserClass.getName().replace('.', '/');
         InputStream in = parserClass.getClassLoader().getResourceAsStream(internalParserClassName + ".class");
         ClassReader classReader;
@@ -230,9 +316,22 @@ public class ParserFactory {
         // PrintWriter(
         // System.out)));
 
+        // determine the rules which might be left recursive, before the
+        // FirstOf() invocations are rewritten
+        LeftRecursionAnalyzer leftRecursionAnalyzer = new LeftRecursionAnalyzer(cn, parserClass.getClassLoader());
+        leftRecursionAnalyzer.analyze();
+
+        // use the first sets of the choices to skip choices which cannot match
+        new FirstSetAnalyzer(cn).rewriteFirstOfInvocations();
+
         // load prototype method
         MethodNode prototype = loadPrototypeMethodNode();
 
+        // rules without @Memo are memoized adaptively if the class is
+        // annotated with @AdaptiveMemo
+        boolean adaptiveMemo = cn.visibleAnnotations != null && cn.visibleAnnotations.stream()
+                .anyMatch(x -> Type.getDescriptor(AdaptiveMemo.class).equals(x.desc));
+
         // modify methods
         for (int i = 0; i < cn.methods.size(); i++) {
             MethodNode ruleNode = cn.methods.get(i);
@@ -272,7 +371,12 @@ public class ParserFactory {
             mv = new MethodCallInliner(mv, ruleNode, minMaxLineMethodAdapter);
 
             // customize the code found in the prototype
-            mv = new PrototypeCustomizer(mv, ruleNode, i, memo);
+            String argumentTypesField = "lambdaPeg$argumentTypes$" + i;
+            cn.fields.add(new FieldNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC,
+                    argumentTypesField, "[Ljava/lang/Class;", null, null));
+            mv = new PrototypeCustomizer(mv, ruleNode, i, memo, adaptiveMemo && !memo, diagnostic,
+                    leftRecursionAnalyzer.isPotentiallyLeftRecursive(ruleNode), internalParserClassName,
+                    argumentTypesField);
 
             // shift local variables to make space for parameters of the rule
             // method
@@ -292,14 +396,41 @@ public class ParserFactory {
         // PrintWriter(
         // System.out)));
 
-        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS + ClassWriter.COMPUTE_FRAMES);
+        ClassLoader classLoader = parserClass.getClassLoader();
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS + ClassWriter.COMPUTE_FRAMES) {
+            /**
+             * Resolve the types using the class loader of the parser class,
+             * which is not necessarily visible from this class (when weaving
+             * ahead of time)
+             */
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                Class<?> c, d;
+                try {
+                    c = Class.forName(type1.replace('/', '.'), false, classLoader);
+                    d = Class.forName(type2.replace('/', '.'), false, classLoader);
+                } catch (ClassNotFoundException e) {
+                    throw new RuntimeException(e);
+                }
+                if (c.isAssignableFrom(d))
+                    return type1;
+                if (d.isAssignableFrom(c))
+                    return type2;
+                if (c.isInterface() || d.isInterface())
+                    return "java/lang/Object";
+                do {
+                    c = c.getSuperclass();
+                } while (!c.isAssignableFrom(d));
+                return Type.getInternalName(c);
+            }
+        };
         cn.accept(cw);
 
         byte[] b = cw.toByteArray();
 
         // verify weaved byte code
         PrintWriter pw = new PrintWriter(System.out);
-        CheckClassAdapter.verify(new ClassReader(b), false, pw);
+        CheckClassAdapter.verify(new ClassReader(b), classLoader, false, pw);
 
         return b;
     }
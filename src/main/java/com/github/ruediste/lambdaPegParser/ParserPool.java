@@ -0,0 +1,97 @@
+package com.github.ruediste.lambdaPegParser;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, thread safe pool of parser instances, each with its own
+ * {@link ParsingContext}. Avoids instantiating the parser, the context and
+ * the memo tables for every input.
+ *
+ * <p>
+ * A borrowed parser is used by a single thread until it is
+ * {@link #release(Parser) released}. If no idle parser is available, a new one
+ * is created. Released parsers are kept if less than the maximum number of
+ * idle parsers are present, otherwise they are left to the garbage collector.
+ * When the input is set, the parser {@link Parser#resetSession() resets} its
+ * per parse state.
+ * </p>
+ */
+public class ParserPool<T extends Parser<?>> {
+
+    private final Supplier<T> factory;
+
+    private final ArrayBlockingQueue<T> idle;
+
+    /**
+     * @param factory
+     *            creates new parser instances, each with a new context
+     * @param maxIdle
+     *            maximum number of idle parsers kept in the pool
+     */
+    public ParserPool(Supplier<T> factory, int maxIdle) {
+        this.factory = factory;
+        this.idle = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    /**
+     * Create a pool of parsers of the given class, created with the
+     * {@link ParserFactory}
+     */
+    public static <C extends ParsingContext<?>, T extends Parser<C>> ParserPool<T> of(Class<T> parserClass,
+            int maxIdle) {
+        Function<String, C> contextFactory = ParserFactory.createParsingContext(parserClass);
+        Function<C, T> parserFactory = ParserFactory.create(parserClass);
+        return new ParserPool<>(() -> parserFactory.apply(contextFactory.apply("")), maxIdle);
+    }
+
+    /**
+     * Take a parser from the pool, or create a new one, and set the input of
+     * its parsing context
+     */
+    public T borrow(ParsingInput input) {
+        T parser = idle.poll();
+        if (parser == null)
+            parser = factory.get();
+        parser.getParsingContext().setInput(input);
+        return parser;
+    }
+
+    /**
+     * Take a parser from the pool, or create a new one, and set the content
+     * of its parsing context
+     */
+    public T borrow(String content) {
+        return borrow(new CharSequenceInput(content));
+    }
+
+    /**
+     * Return a parser to the pool. The parser must not be used afterwards.
+     */
+    public void release(T parser) {
+        // do not keep the input alive
+        parser.getParsingContext().setContent("");
+        idle.offer(parser);
+    }
+
+    /**
+     * Borrow a parser for the given content, apply the action and release the
+     * parser again.
+     */
+    public <R> R parse(String content, Function<? super T, R> action) {
+        T parser = borrow(content);
+        try {
+            return action.apply(parser);
+        } finally {
+            release(parser);
+        }
+    }
+
+    /**
+     * Return the number of idle parsers in the pool
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+}
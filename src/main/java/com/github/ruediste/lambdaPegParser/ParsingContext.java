@@ -2,10 +2,12 @@ package com.github.ruediste.lambdaPegParser;
 
 import static java.util.stream.Collectors.joining;
 
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
 
 import com.github.ruediste.lambdaPegParser.Parser.RuleCacheKey;
 import com.github.ruediste.lambdaPegParser.Parser.RuleCacheValue;
@@ -20,14 +22,31 @@ import com.github.ruediste.lambdaPegParser.Parser.RuleCacheValue;
  * </p>
  * 
  * <p>
+ * The input is accessed through a {@link ParsingInput}. Besides strings,
+ * character sequences, char arrays and char buffers can be parsed without
+ * copying them (see {@link #setInput(ParsingInput)}).
+ * </p>
+ * 
+ * <p>
  * The parsing state is encapsulated within a {@link ParsingState}. The current
  * state can be saved using {@link #snapshot()} and restored using
- * {@link StateSnapshot#restore()}. This allows backtracking.
+ * {@link StateSnapshot#restore()}. This allows backtracking. For short lived
+ * backtracking points, {@link #mark()}, {@link #reset(int)} and
+ * {@link #release(int)} avoid allocating snapshots.
+ * </p>
+ * 
+ * <p>
+ * For incremental reparsing, the context tracks how far the input has been
+ * examined (see {@link #startExamining()}). After
+ * {@link #applyEdit(int, int, String) applying an edit}, the parsers keep the
+ * memoized results which did not examine the changed part of the input.
  * </p>
  * 
  */
 public class ParsingContext<TState extends ParsingState<TState>> {
-    private String content;
+    private static final Logger log = Logger.getLogger(ParsingContext.class.getName());
+
+    private ParsingInput input;
 
     private TState state;
 
@@ -35,17 +54,131 @@ public class ParsingContext<TState extends ParsingState<TState>> {
         setContent(content);
     }
 
+    public ParsingContext(ParsingInput input) {
+        setInput(input);
+    }
+
+    /**
+     * Fired whenever the input is set, with the new input
+     */
+    public final LambdaPegEvent<ParsingInput> inputSetEvent = new LambdaPegEvent<>();
+
+    /**
+     * Fired whenever the input is set, with the new input as string. If a
+     * handler is registered, the input is copied into a string each time it is
+     * set, which reads streaming inputs completely.
+     * 
+     * @deprecated use {@link #inputSetEvent}, which does not copy the input
+     */
+    @Deprecated
     public final LambdaPegEvent<String> contentSetEvent = new LambdaPegEvent<>();
 
+    /**
+     * Return the input as string. Unless the input has been set using
+     * {@link #setContent(String)}, this copies the input.
+     */
     public String getContent() {
-        return content;
+        return input.substring(0, input.length());
     }
 
     public final void setContent(String content) {
-        this.content = content;
+        setInput(new CharSequenceInput(content));
+    }
+
+    public ParsingInput getInput() {
+        return input;
+    }
+
+    /**
+     * Set the input and reset the parsing state
+     */
+    public final void setInput(ParsingInput input) {
+        initInput(input);
+        inputSetEvent.fire(input);
+        if (contentSetEvent.hasHandlers())
+            contentSetEvent.fire(getContent());
+    }
+
+    private void initInput(ParsingInput input) {
+        this.input = input;
+        input.attach(this);
         state = createInitialState();
+        markable = state.isMarkable();
+        Arrays.fill(markedStates, null);
+        markCount = 0;
+        commitIndex = 0;
         expectationFrame = new ExpectationFrame();
-        contentSetEvent.fire(content);
+        examinedEnd = 0;
+        lineIndex = null;
+    }
+
+    /**
+     * A change of the input: {@link #removedLength} chars starting at
+     * {@link #offset} are replaced by the {@link #insertedText}.
+     */
+    public static class TextEdit {
+        public final int offset;
+        public final int removedLength;
+        public final String insertedText;
+
+        public TextEdit(int offset, int removedLength, String insertedText) {
+            this.offset = offset;
+            this.removedLength = removedLength;
+            this.insertedText = insertedText;
+        }
+
+        /**
+         * Return the amount by which the positions after the edit are shifted
+         */
+        public int getDelta() {
+            return insertedText.length() - removedLength;
+        }
+
+        @Override
+        public String toString() {
+            return "TextEdit [offset=" + offset + ", removedLength=" + removedLength + ", insertedText="
+                    + insertedText + "]";
+        }
+    }
+
+    /**
+     * Fired by {@link #applyEdit(int, int, String)} after the input has been
+     * changed. Parsers use it to update their memoized results.
+     */
+    public final LambdaPegEvent<TextEdit> editEvent = new LambdaPegEvent<>();
+
+    /**
+     * Change the input by replacing {@code removedLength} chars at
+     * {@code offset} with the inserted text, and reset the parsing state.
+     * 
+     * <p>
+     * In contrast to {@link #setInput(ParsingInput)}, the memoized results of
+     * the parsers are kept: results which examined the changed part of the
+     * input are dropped, the positions of results after the change are
+     * shifted. Invoking the start rule again then only re-parses the damaged
+     * region. This assumes that the rules access the input only through
+     * {@link #peek()}, {@link #next()} and {@link #hasNext()}, and do not read
+     * before their start position.
+     * </p>
+     * 
+     * <p>
+     * The offsets are UTF-16 char indexes. Only inputs held in memory are
+     * supported (see {@link ParsingInput#isInMemoryCharInput()}). For other
+     * inputs, such as {@link MappedUtf8Input} or {@link ReaderInput}, an
+     * {@link UnsupportedOperationException} is thrown.
+     * </p>
+     */
+    public final void applyEdit(int offset, int removedLength, String insertedText) {
+        if (!input.isInMemoryCharInput())
+            throw new UnsupportedOperationException("Edits are only supported for in-memory inputs indexed by UTF-16 "
+                    + "chars, not for " + input.getClass().getSimpleName());
+        int length = input.length();
+        if (offset < 0 || removedLength < 0 || offset + removedLength > length)
+            throw new IndexOutOfBoundsException(
+                    "Edit at " + offset + " removing " + removedLength + " chars, input length " + length);
+        String content = input.substring(0, offset) + insertedText + input.substring(offset + removedLength, length);
+        initInput(new CharSequenceInput(content));
+        editEvent.fire(new TextEdit(offset, removedLength, insertedText));
     }
 
     @SuppressWarnings("unchecked")
@@ -59,7 +192,9 @@ public class ParsingContext<TState extends ParsingState<TState>> {
     public int peek() {
         if (!hasNext())
             throw noMatch();
-        return content.codePointAt(getIndex());
+        int index = getIndex();
+        examined(input.nextIndex(index));
+        return input.codePointAt(index);
     }
 
     /**
@@ -69,8 +204,10 @@ public class ParsingContext<TState extends ParsingState<TState>> {
         if (!hasNext()) {
             throw noMatch();
         }
-        int result = content.codePointAt(getIndex());
-        state.index = getIndex() + Character.charCount(result);
+        int index = getIndex();
+        int result = input.codePointAt(index);
+        state.index = input.nextIndex(index);
+        examined(state.index);
         return result;
     }
 
@@ -86,7 +223,54 @@ public class ParsingContext<TState extends ParsingState<TState>> {
      * Return true if there are more codepoints in the input
      */
     public boolean hasNext() {
-        return getIndex() < content.length();
+        int index = getIndex();
+        examined(index + 1);
+        return input.hasCodePointAt(index);
+    }
+
+    /**
+     * Exclusive end of the input examined since the last
+     * {@link #startExamining()}. Checking for the end of the input counts as
+     * examining the position after the last char.
+     */
+    private int examinedEnd;
+
+    /**
+     * Record that the input has been examined up to the given (exclusive)
+     * index
+     */
+    public void examined(int end) {
+        if (end > examinedEnd)
+            examinedEnd = end;
+    }
+
+    /**
+     * Return the exclusive end of the input examined since the last
+     * {@link #startExamining()}
+     */
+    public int getExaminedEnd() {
+        return examinedEnd;
+    }
+
+    /**
+     * Start tracking the input examined by a rule invocation. The returned
+     * value has to be passed to {@link #stopExamining(int)} at the end of the
+     * invocation, which merges the range of the invocation into the range of
+     * the enclosing invocation.
+     */
+    public int startExamining() {
+        int outer = examinedEnd;
+        examinedEnd = 0;
+        return outer;
+    }
+
+    /**
+     * Stop tracking the input examined by a rule invocation, see
+     * {@link #startExamining()}
+     */
+    public void stopExamining(int outer) {
+        if (outer > examinedEnd)
+            examinedEnd = outer;
     }
 
     /**
@@ -124,6 +308,10 @@ public class ParsingContext<TState extends ParsingState<TState>> {
             snapshot = state.clone();
         }
 
+        StateSnapshotImpl(TState snapshot) {
+            this.snapshot = snapshot;
+        }
+
         @Override
         public void restore() {
             checkSnapshot();
@@ -152,11 +340,243 @@ public class ParsingContext<TState extends ParsingState<TState>> {
     }
 
     /**
-     * Collects expectations. Used for error reporting
+     * Return a copy of a snapshot created by this context, with the input
+     * index moved by the given delta. Used to shift memoized results after an
+     * {@link #applyEdit(int, int, String) edit}.
+     */
+    @SuppressWarnings("unchecked")
+    StateSnapshot shift(StateSnapshot snapshot, int delta) {
+        StateSnapshotImpl impl = (StateSnapshotImpl) snapshot;
+        impl.checkSnapshot();
+        TState shifted = impl.snapshot.clone();
+        shifted.index += delta;
+        return new StateSnapshotImpl(shifted);
+    }
+
+    /**
+     * If true, the marks are kept in {@link #marks}, otherwise clones of the
+     * state are kept in {@link #markedStates}
+     */
+    private boolean markable;
+
+    private long[] marks = new long[16];
+
+    /**
+     * Input index of each mark
+     */
+    private int[] markIndexes = new int[16];
+
+    private Object[] markedStates = new Object[16];
+
+    private int markCount;
+
+    /**
+     * Return true if the {@link ParsingState#isMarkable() state is markable}
+     */
+    public boolean isMarkable() {
+        return markable;
+    }
+
+    /**
+     * Mark the current state. The state can be reset to the mark using
+     * {@link #reset(int)}. Each mark has to be released using
+     * {@link #release(int)} once it is not used anymore, in the reverse order
+     * of the creation of the marks. Typical usage:
+     * 
+     * <pre>
+     * int mark = ctx.mark();
+     * try {
+     *     ...
+     * } catch (NoMatchException e) {
+     *     ctx.reset(mark);
+     * } finally {
+     *     ctx.release(mark);
+     * }
+     * </pre>
+     * 
+     * <p>
+     * If the state {@link ParsingState#isMarkable() is markable}, no
+     * allocation takes place. Otherwise a clone of the state is kept.
+     * </p>
+     * 
+     * @return handle of the mark
+     */
+    public int mark() {
+        if (markCount == marks.length) {
+            marks = Arrays.copyOf(marks, markCount * 2);
+            markedStates = Arrays.copyOf(markedStates, markCount * 2);
+            markIndexes = Arrays.copyOf(markIndexes, markCount * 2);
+        }
+        markIndexes[markCount] = state.index;
+        if (markable)
+            marks[markCount] = state.mark();
+        else
+            markedStates[markCount] = state.clone();
+        return markCount++;
+    }
+
+    /**
+     * Keep the input from the current index on available, without marking the
+     * state. The returned handle has to be released using
+     * {@link #release(int)}, like a {@link #mark()}, but the state cannot be
+     * {@link #reset(int) reset} to it. In contrast to {@link #mark()}, this
+     * never allocates, even if the state is not markable.
+     * 
+     * @return handle of the mark
+     */
+    public int retain() {
+        if (markCount == marks.length) {
+            marks = Arrays.copyOf(marks, markCount * 2);
+            markedStates = Arrays.copyOf(markedStates, markCount * 2);
+            markIndexes = Arrays.copyOf(markIndexes, markCount * 2);
+        }
+        markIndexes[markCount] = state.index;
+        return markCount++;
+    }
+
+    /**
+     * Reset the state to the given mark. The mark stays valid and can be reset
+     * to multiple times, until it is released. If the mark lies before the
+     * {@link #commit() commit index}, the state is not reset and a
+     * {@link NoMatchException} is raised instead.
+     */
+    @SuppressWarnings("unchecked")
+    public void reset(int mark) {
+        if (markIndexes[mark] < commitIndex)
+            throw noMatch();
+        if (markable)
+            state.reset(marks[mark]);
+        else
+            state = ((TState) markedStates[mark]).clone();
+    }
+
+    /**
+     * Release the given mark and all marks created after it.
+     */
+    public void release(int mark) {
+        if (!markable)
+            Arrays.fill(markedStates, mark, markCount, null);
+        markCount = mark;
+    }
+
+    /**
+     * Return true if the state can be reset to the given mark, which is the
+     * case unless the mark lies before the {@link #commit() commit index}
+     */
+    public boolean isResettable(int mark) {
+        return markIndexes[mark] >= commitIndex;
+    }
+
+    private MemoBudget memoBudget = MemoBudget.unlimited();
+
+    /**
+     * Return the budget for memoization used by parsers created for this
+     * context
+     */
+    public MemoBudget getMemoBudget() {
+        return memoBudget;
+    }
+
+    /**
+     * Set the budget for memoization used by parsers created afterwards. Use
+     * {@link Parser#setMemoBudget(MemoBudget)} to change the budget of
+     * existing parsers.
+     */
+    public void setMemoBudget(MemoBudget memoBudget) {
+        this.memoBudget = memoBudget;
+    }
+
+    private int commitIndex;
+
+    /**
+     * Fired with the new commit index by {@link #commit()}
+     */
+    public final LambdaPegEvent<Integer> commitEvent = new LambdaPegEvent<>();
+
+    /**
+     * Commit to the current position. Afterwards, the parser does not
+     * backtrack to positions before it: resetting to a mark created earlier
+     * raises a {@link NoMatchException} (see {@link #reset(int)}). Parsers
+     * drop their memoized results for positions to the left, and inputs can
+     * discard the data.
+     */
+    public void commit() {
+        int index = getIndex();
+        if (index > commitIndex) {
+            commitIndex = index;
+            commitEvent.fire(index);
+        }
+    }
+
+    /**
+     * Return the index passed by the last {@link #commit()}, 0 if no commit
+     * took place
+     */
+    public int getCommitIndex() {
+        return commitIndex;
+    }
+
+    /**
+     * Return the smallest input index the parser can still return to: the
+     * index of the oldest live mark after the {@link #commit() commit index},
+     * or the current index if there is no such mark. Used by inputs discarding
+     * data which is no longer needed.
+     * 
+     * <p>
+     * {@link StateSnapshot}s do not count, they may only be restored to
+     * positions at or after the retained index.
+     * </p>
+     */
+    public int getRetainedIndex() {
+        int result = getIndex();
+        if (markCount > 0) {
+            // the mark indexes are ascending. Marks before the commit index
+            // cannot be reset to anymore
+            result = Math.min(result, Math.max(markIndexes[0], commitIndex));
+        }
+        return result;
+    }
+
+    /**
+     * Expectation whose description is only built if it is actually reported,
+     * see {@link ParsingContext#registerExpectation(LazyExpectation, int)}.
+     * Implementations have to implement {@link #equals(Object)} and
+     * {@link #hashCode()}, such that equal expectations are reported once.
+     */
+    public interface LazyExpectation {
+        String describe();
+    }
+
+    /**
+     * Collects the expectations registered at the input position farthest to
+     * the right. Used for error reporting.
+     * 
+     * <p>
+     * The expectations are kept as registered: either as strings or as
+     * {@link LazyExpectation}s. The descriptions are only built by
+     * {@link #getExpectations()}, which replaces the former public
+     * {@code expectations} field. Frames are reused by
+     * {@link ParsingContext#pushExpectationFrame()}, so registering
+     * expectations does not allocate in the common case.
+     * </p>
      */
     public static class ExpectationFrame {
         public int index;
-        public Set<String> expectations = new LinkedHashSet<>();
+
+        /**
+         * Strings or {@link LazyExpectation}s
+         */
+        private Object[] expectations = new Object[4];
+        private int size;
+
+        /**
+         * Return true if an expectation registered at the given index would
+         * be kept, i.e. if the index does not lie to the left of
+         * {@link #index}.
+         */
+        public boolean isRelevant(int index) {
+            return index >= this.index;
+        }
 
         /**
          * Register an expectation. If the supplied index lies farther to the
@@ -165,12 +585,47 @@ public class ParsingContext<TState extends ParsingState<TState>> {
          * supplied index does NOT lie to the left of {@link #index}.
          */
         public void registerExpectation(int index, String expectation) {
+            register(index, expectation);
+        }
+
+        /**
+         * Register a lazily described expectation, see
+         * {@link #registerExpectation(int, String)}
+         */
+        public void registerExpectation(int index, LazyExpectation expectation) {
+            register(index, expectation);
+        }
+
+        private void register(int index, Object expectation) {
             if (this.index < index) {
                 this.index = index;
-                expectations.clear();
+                clearExpectations();
             }
             if (this.index == index)
-                expectations.add(expectation);
+                add(expectation);
+        }
+
+        private void add(Object expectation) {
+            for (int i = 0; i < size; i++) {
+                if (expectations[i] == expectation || expectations[i].equals(expectation))
+                    return;
+            }
+            if (size == expectations.length)
+                expectations = Arrays.copyOf(expectations, size * 2);
+            expectations[size++] = expectation;
+        }
+
+        private void clearExpectations() {
+            Arrays.fill(expectations, 0, size, null);
+            size = 0;
+        }
+
+        /**
+         * Clear the frame for reuse
+         */
+        void clear() {
+            index = 0;
+            clearExpectations();
         }
 
         /**
@@ -178,17 +633,44 @@ public class ParsingContext<TState extends ParsingState<TState>> {
          * both are at the same position, the expectations are merged.
          */
         public void merge(ExpectationFrame other) {
-            if (index == other.index) {
-                expectations.addAll(other.expectations);
-            }
             if (index < other.index) {
-                expectations = new HashSet<>(other.expectations);
+                index = other.index;
+                clearExpectations();
             }
+            if (index == other.index) {
+                for (int i = 0; i < other.size; i++)
+                    add(other.expectations[i]);
+            }
+        }
+
+        /**
+         * Return the descriptions of the registered expectations, in
+         * registration order. The returned set is a copy, modifying it does
+         * not affect the frame.
+         */
+        public Set<String> getExpectations() {
+            Set<String> result = new LinkedHashSet<>();
+            for (int i = 0; i < size; i++)
+                result.add(describe(expectations[i]));
+            return result;
+        }
+
+        private static String describe(Object expectation) {
+            if (expectation instanceof LazyExpectation)
+                return ((LazyExpectation) expectation).describe();
+            return (String) expectation;
         }
     }
 
     private ExpectationFrame expectationFrame;
 
+    /**
+     * Frames released by {@link #popExpectationFrame(ExpectationFrame)}, for
+     * reuse by {@link #pushExpectationFrame()}
+     */
+    private ExpectationFrame[] freeExpectationFrames = new ExpectationFrame[4];
+    private int freeExpectationFrameCount;
+
     /**
      * Register an expectation at the current index with the current
      * {@link ExpectationFrame}
@@ -209,6 +691,10 @@ public class ParsingContext<TState extends ParsingState<TState>> {
 
     }
 
+    /**
+     * Fired for each registered expectation. The description of
+     * {@link LazyExpectation}s is only built if there are handlers.
+     */
     public final LambdaPegEvent<Expectation> expectationRegistered = new LambdaPegEvent<>();
 
     /**
@@ -217,7 +703,29 @@ public class ParsingContext<TState extends ParsingState<TState>> {
      */
     public void registerExpectation(String expectation, int index) {
         expectationFrame.registerExpectation(index, expectation);
-        expectationRegistered.fire(new Expectation(index, expectation));
+        if (expectationRegistered.hasHandlers())
+            expectationRegistered.fire(new Expectation(index, expectation));
+    }
+
+    /**
+     * Register a lazily described expectation at the supplied index with the
+     * current {@link ExpectationFrame}. To avoid creating the expectation if
+     * it would be dropped anyways, check
+     * {@link #isExpectationRelevant(int)} first.
+     */
+    public void registerExpectation(LazyExpectation expectation, int index) {
+        expectationFrame.registerExpectation(index, expectation);
+        if (expectationRegistered.hasHandlers())
+            expectationRegistered.fire(new Expectation(index, expectation.describe()));
+    }
+
+    /**
+     * Return true if an expectation registered at the given index would be
+     * kept by the current {@link ExpectationFrame}, or if expectations are
+     * observed via {@link #expectationRegistered}
+     */
+    public boolean isExpectationRelevant(int index) {
+        return expectationFrame.isRelevant(index) || expectationRegistered.hasHandlers();
     }
 
     /**
@@ -225,8 +733,9 @@ public class ParsingContext<TState extends ParsingState<TState>> {
      * expectations
      */
     public ErrorDesciption getErrorDescription() {
-        ErrorDesciption result = new ErrorDesciption(Collections.unmodifiableSet(expectationFrame.expectations),
-                content, expectationFrame.index);
+        ErrorDesciption result = new ErrorDesciption(
+                Collections.unmodifiableSet(expectationFrame.getExpectations()),
+                new PositionInfo(input, expectationFrame.index, getLineIndex()), expectationFrame.index);
         return result;
     }
 
@@ -243,6 +752,39 @@ public class ParsingContext<TState extends ParsingState<TState>> {
         return expectationFrame;
     }
 
+    /**
+     * Replace the current expectation frame with an empty one, reusing a
+     * previously released frame if possible. The returned previous frame has
+     * to be passed to {@link #popExpectationFrame(ExpectationFrame)}
+     * afterwards. The new frame must not be used after it has been popped.
+     * 
+     * @return the previous frame
+     */
+    public ExpectationFrame pushExpectationFrame() {
+        ExpectationFrame previous = expectationFrame;
+        if (freeExpectationFrameCount > 0) {
+            expectationFrame = freeExpectationFrames[--freeExpectationFrameCount];
+            freeExpectationFrames[freeExpectationFrameCount] = null;
+        } else
+            expectationFrame = new ExpectationFrame();
+        return previous;
+    }
+
+    /**
+     * Release the current expectation frame for reuse and restore the given
+     * previous frame, see {@link #pushExpectationFrame()}
+     */
+    public void popExpectationFrame(ExpectationFrame previous) {
+        ExpectationFrame frame = expectationFrame;
+        expectationFrame = previous;
+        if (frame == previous)
+            return;
+        frame.clear();
+        if (freeExpectationFrameCount == freeExpectationFrames.length)
+            freeExpectationFrames = Arrays.copyOf(freeExpectationFrames, freeExpectationFrameCount * 2);
+        freeExpectationFrames[freeExpectationFrameCount++] = frame;
+    }
+
     public static class ErrorDesciption {
         public int errorPosition;
         public Set<String> expectations;
@@ -250,9 +792,17 @@ public class ParsingContext<TState extends ParsingState<TState>> {
         public PositionInfo errorLineInfo;
 
         public ErrorDesciption(Set<String> expectations, String content, int errorPosition) {
+            this(expectations, new CharSequenceInput(content), errorPosition);
+        }
+
+        public ErrorDesciption(Set<String> expectations, ParsingInput input, int errorPosition) {
+            this(expectations, new PositionInfo(input, errorPosition), errorPosition);
+        }
+
+        public ErrorDesciption(Set<String> expectations, PositionInfo errorLineInfo, int errorPosition) {
             this.expectations = expectations;
             this.errorPosition = errorPosition;
-            errorLineInfo = new PositionInfo(content, errorPosition);
+            this.errorLineInfo = errorLineInfo;
         }
 
         @Override
@@ -264,35 +814,98 @@ public class ParsingContext<TState extends ParsingState<TState>> {
 
     }
 
-    public final LambdaPegEvent<RuleLoggingInfo> recursiveEvent = new LambdaPegEvent<>();
+    private boolean diagnostic;
+
+    /**
+     * Return true if the parsers created for this context should fire the rule
+     * events ({@link #enteringEvent}, {@link #leavingEvent},
+     * {@link #failedEvent}, {@link #recursiveEvent}, {@link #retryingEvent},
+     * {@link #checkedCacheEvent} and {@link #putCacheEvent}). This is the case
+     * if diagnostic mode has been {@link #setDiagnostic(boolean) enabled} or
+     * if a handler is registered for any of these events.
+     * 
+     * <p>
+     * The {@link ParserFactory} uses a variant of the weaved parser class
+     * which does not fire these events and does not collect the logging
+     * information unless the context is diagnostic when the parser is
+     * created. Thus, register a {@link Tracer} or a {@link TraceRecorder}
+     * before creating the parsers. Registering a handler for one of the rule
+     * events after a parser has been created logs a warning.
+     * </p>
+     */
+    public boolean isDiagnostic() {
+        return diagnostic || enteringEvent.hasHandlers() || leavingEvent.hasHandlers() || failedEvent.hasHandlers()
+                || recursiveEvent.hasHandlers() || retryingEvent.hasHandlers() || checkedCacheEvent.hasHandlers()
+                || putCacheEvent.hasHandlers();
+    }
+
+    public void setDiagnostic(boolean diagnostic) {
+        this.diagnostic = diagnostic;
+    }
+
+    /**
+     * Set once a parser not firing the rule events has been created for this
+     * context
+     */
+    private volatile boolean productionParserCreated;
+
+    private volatile boolean lateRuleEventHandlerReported;
+
+    /**
+     * Called by the {@link ParserFactory} when a parser not firing the rule
+     * events is created for this context
+     */
+    void productionParserCreated() {
+        productionParserCreated = true;
+    }
+
+    /**
+     * Event fired by the diagnostic variant of the parsers only. Logs a
+     * warning if a handler is registered after a parser of the production
+     * variant has been created, since that parser will not fire the event.
+     */
+    private class RuleEvent<T> extends LambdaPegEvent<T> {
+        @Override
+        public void register(Consumer<T> handler) {
+            if (productionParserCreated && !lateRuleEventHandlerReported) {
+                lateRuleEventHandlerReported = true;
+                log.warning("Rule event handler registered after a parser has been created for the context. "
+                        + "The parser does not fire rule events. Register the handler (for example a Tracer) "
+                        + "or enable diagnostic mode before creating the parsers.");
+            }
+            super.register(handler);
+        }
+    }
+
+    public final LambdaPegEvent<RuleLoggingInfo> recursiveEvent = new RuleEvent<>();
 
     public void recursive(RuleLoggingInfo loggingInfo) {
         loggingInfo.index = getIndex();
         recursiveEvent.fire(loggingInfo);
     }
 
-    public final LambdaPegEvent<RuleLoggingInfo> enteringEvent = new LambdaPegEvent<>();
+    public final LambdaPegEvent<RuleLoggingInfo> enteringEvent = new RuleEvent<>();
 
     public void entering(RuleLoggingInfo loggingInfo) {
         loggingInfo.index = getIndex();
         enteringEvent.fire(loggingInfo);
     }
 
-    public final LambdaPegEvent<RuleLoggingInfo> failedEvent = new LambdaPegEvent<>();
+    public final LambdaPegEvent<RuleLoggingInfo> failedEvent = new RuleEvent<>();
 
     public void failed(RuleLoggingInfo loggingInfo) {
         loggingInfo.index = getIndex();
         failedEvent.fire(loggingInfo);
     }
 
-    public final LambdaPegEvent<RuleLoggingInfo> leavingEvent = new LambdaPegEvent<>();
+    public final LambdaPegEvent<RuleLoggingInfo> leavingEvent = new RuleEvent<>();
 
     public void leaving(RuleLoggingInfo loggingInfo) {
         loggingInfo.index = getIndex();
         leavingEvent.fire(loggingInfo);
     }
 
-    public final LambdaPegEvent<RuleLoggingInfo> retryingEvent = new LambdaPegEvent<>();
+    public final LambdaPegEvent<RuleLoggingInfo> retryingEvent = new RuleEvent<>();
 
     public void retrying(RuleLoggingInfo loggingInfo) {
         loggingInfo.index = getIndex();
@@ -311,14 +924,14 @@ public class ParsingContext<TState extends ParsingState<TState>> {
 
     }
 
-    public final LambdaPegEvent<CacheLoggingEvent> checkedCacheEvent = new LambdaPegEvent<>();
+    public final LambdaPegEvent<CacheLoggingEvent> checkedCacheEvent = new RuleEvent<>();
 
     public void checkedCache(com.github.ruediste.lambdaPegParser.Parser.RuleCacheKey cacheKey,
             com.github.ruediste.lambdaPegParser.Parser.RuleCacheValue value) {
         checkedCacheEvent.fire(new CacheLoggingEvent(cacheKey, value));
     }
 
-    public final LambdaPegEvent<CacheLoggingEvent> putCacheEvent = new LambdaPegEvent<>();
+    public final LambdaPegEvent<CacheLoggingEvent> putCacheEvent = new RuleEvent<>();
 
     public void putCache(com.github.ruediste.lambdaPegParser.Parser.RuleCacheKey cacheKey,
             com.github.ruediste.lambdaPegParser.Parser.RuleCacheValue value) {
@@ -333,14 +946,58 @@ public class ParsingContext<TState extends ParsingState<TState>> {
     }
 
     public PositionInfo currentPositionInfo() {
-        return new PositionInfo(content, getIndex());
+        return new PositionInfo(input, getIndex(), getLineIndex());
     }
 
-    // private NoMatchException exception = new NoMatchException(this);
+    private LineIndex lineIndex;
+
+    /**
+     * Return the index of the lines of the current input, which is created
+     * on first use. Shared by the {@link PositionInfo}s created by this
+     * context.
+     */
+    public LineIndex getLineIndex() {
+        if (lineIndex == null)
+            lineIndex = new LineIndex(input);
+        return lineIndex;
+    }
 
+    private final NoMatchException noMatchException = new NoMatchException(this);
+
+    /**
+     * Return the {@link NoMatchException} of this context. The instance is
+     * shared and does not capture a stack trace, so signalling a failure does
+     * not allocate anything.
+     */
     public NoMatchException noMatch() {
-        throw new NoMatchException(this);
-        // return exception;
+        return noMatchException;
+    }
+
+    /**
+     * Number of currently active rule invocations entered from outside of the
+     * parsers (via a parser proxy).
+     */
+    private int externalInvocationDepth;
+
+    /**
+     * Called by parser proxies before a rule invocation from outside of the
+     * parsers
+     */
+    public void enteringExternalInvocation() {
+        externalInvocationDepth++;
+    }
+
+    /**
+     * Called by parser proxies after a rule invocation from outside of the
+     * parsers. If the invocation failed and it was the top level invocation,
+     * an exception carrying a copy of the current error description is
+     * returned. Otherwise the supplied exception is returned.
+     */
+    public NoMatchException leavingExternalInvocation(NoMatchException e) {
+        externalInvocationDepth--;
+        if (e != null && externalInvocationDepth == 0)
+            return new NoMatchException(this, getErrorDescription());
+        return e;
     }
 
     public NoMatchException noMatch(String expected) {
@@ -0,0 +1,99 @@
+package com.github.ruediste.lambdaPegParser;
+
+/**
+ * The input of a {@link ParsingContext}.
+ *
+ * <p>
+ * The input is addressed by indexes. What an index refers to is up to the
+ * implementation (for example UTF-16 chars or bytes), but the first code point
+ * is always located at index 0, and the index of each subsequent code point is
+ * determined using {@link #nextIndex(int)}. Implementations for
+ * {@link CharSequence}s ({@link CharSequenceInput}), char arrays
+ * ({@link CharArrayInput}) and {@link java.nio.CharBuffer}s
+ * ({@link CharBufferInput}) are available. They do not copy the input.
+ * </p>
+ */
+public interface ParsingInput {
+
+    /**
+     * Return true if a code point is located at the given index, false if the
+     * index is at the end of the input.
+     */
+    boolean hasCodePointAt(int index);
+
+    /**
+     * Return the code point located at the given index
+     */
+    int codePointAt(int index);
+
+    /**
+     * Return the index of the code point following the code point located at
+     * the given index.
+     */
+    int nextIndex(int index);
+
+    /**
+     * Return the index of the end of the input. Inputs of unknown length read
+     * the whole input.
+     */
+    int length();
+
+    /**
+     * Return the part of the input between the two indexes as string
+     */
+    String substring(int start, int end);
+
+    /**
+     * Return true if the whole input is held in memory and the indexes are
+     * UTF-16 char indexes. Only such inputs can be
+     * {@link ParsingContext#applyEdit(int, int, String) edited}.
+     */
+    default boolean isInMemoryCharInput() {
+        return false;
+    }
+
+    /**
+     * Called when the input is set on a context. Inputs discarding data which
+     * is no longer needed use {@link ParsingContext#getRetainedIndex()} to
+     * determine what can be discarded.
+     */
+    default void attach(ParsingContext<?> ctx) {
+    }
+
+    /**
+     * Return the smallest index which can still be accessed. Inputs which
+     * discard data try to keep the start of the line of the retained index
+     * available, for error reporting.
+     */
+    default int getFirstAvailableIndex() {
+        return 0;
+    }
+
+    /**
+     * Return the line number (starting at 1) of the
+     * {@link #getFirstAvailableIndex() first available index}
+     */
+    default int getFirstAvailableLineNr() {
+        return 1;
+    }
+
+    /**
+     * Return the offset of the given index within the underlying source, for
+     * example the offset within a file. Used for error reporting.
+     */
+    default long sourceOffset(int index) {
+        return index;
+    }
+
+    /**
+     * Return the index of the first occurrence of the code point, starting the
+     * search at the given index. If the code point is not found, return -1.
+     */
+    default int indexOf(int codePoint, int fromIndex) {
+        for (int idx = fromIndex; hasCodePointAt(idx); idx = nextIndex(idx)) {
+            if (codePointAt(idx) == codePoint)
+                return idx;
+        }
+        return -1;
+    }
+}
@@ -6,6 +6,37 @@ public class ParsingState<TSelf extends ParsingState<TSelf>> implements Cloneabl
 
     public int minPrecedenceLevel = 0;
 
+    /**
+     * Return true if the complete state is captured by {@link #mark()}. In
+     * this case, {@link ParsingContext#mark()} does not allocate.
+     * 
+     * <p>
+     * By default, only {@link ParsingState} and {@link DefaultParsingState}
+     * are markable. Derived states adding fields can take part by overriding
+     * {@link #mark()} and {@link #reset(long)} to pack all their fields into
+     * a long, and returning true from this method.
+     * </p>
+     */
+    public boolean isMarkable() {
+        return getClass() == ParsingState.class || getClass() == DefaultParsingState.class;
+    }
+
+    /**
+     * Pack the state into a long. Only used if {@link #isMarkable()} returns
+     * true.
+     */
+    public long mark() {
+        return ((long) index << 32) | (minPrecedenceLevel & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Restore the state from a value returned by {@link #mark()}
+     */
+    public void reset(long mark) {
+        index = (int) (mark >>> 32);
+        minPrecedenceLevel = (int) mark;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public TSelf clone() {
@@ -2,9 +2,24 @@ package com.github.ruediste.lambdaPegParser;
 
 /**
  * Information about the line a position is located in a string.
+ * 
+ * <p>
+ * The line is determined using a {@link LineIndex}. Pass the index of the
+ * context (see {@link ParsingContext#getLineIndex()}) to avoid scanning the
+ * input again for each position. Lines longer than {@link #MAX_LINE_LENGTH}
+ * are cut to a window around the position.
+ * </p>
  */
 public class PositionInfo {
 
+    /**
+     * Maximum length of the {@link #getLine() line}, without the ellipses
+     * marking a cut line
+     */
+    public static final int MAX_LINE_LENGTH = 200;
+
+    private static final String ELLIPSIS = "...";
+
     /**
      * Line number the error occured in. First line has count 1
      */
@@ -15,46 +30,78 @@ public class PositionInfo {
     private String line;
 
     /**
-     * index of the error in the error line
+     * index of the error in the error line, in UTF-16 chars. If the line has
+     * been cut, the index within the cut line.
      */
     private int indexInLine;
 
     private String positionChar;
 
-    private String content;
+    private ParsingInput input;
     private int position;
+    private LineIndex lineIndex;
     volatile boolean loaded;
 
     public PositionInfo(String content, int position) {
-        this.content = content;
+        this(new CharSequenceInput(content), position);
+    }
+
+    public PositionInfo(ParsingInput input, int position) {
+        this(input, position, null);
+    }
+
+    /**
+     * @param lineIndex
+     *            index of the lines of the input. If null, a new index is
+     *            created when the line is determined.
+     */
+    public PositionInfo(ParsingInput input, int position, LineIndex lineIndex) {
+        this.input = input;
         this.position = position;
+        this.lineIndex = lineIndex;
     }
 
     private void calculate() {
         if (loaded)
             return;
+        // concurrent callers might calculate the fields as well, with the
+        // same result. Only publish them once they are assigned.
+        calculateFields();
         loaded = true;
+    }
 
-        if (position >= content.length())
+    private void calculateFields() {
+        if (position < input.getFirstAvailableIndex()) {
+            // the input has been discarded
+            positionChar = "?";
+            line = "";
+            lineNr = -1;
+            return;
+        }
+        if (!input.hasCodePointAt(position))
             positionChar = "EOI";
         else
-            positionChar = new String(Character.toChars(content.codePointAt(position)));
-        int lineNr = 1;
-        int idx = 0;
-        while (true) {
-            int endIdx = content.indexOf('\n', idx);
-
-            if (position >= idx && (endIdx == -1 || endIdx + 1 > position)) {
-                line = content.substring(idx, endIdx == -1 ? content.length() : endIdx);
-                indexInLine = position - idx;
-                this.lineNr = lineNr;
-                break;
-            }
-            if (endIdx == -1)
-                break;
-            idx = endIdx + 1;
-            lineNr++;
+            positionChar = new String(Character.toChars(input.codePointAt(position)));
+        if (lineIndex == null)
+            lineIndex = new LineIndex(input);
+        lineNr = lineIndex.getLineNr(position);
+        int start = lineIndex.getLineStart(position);
+        int end = lineIndex.getLineEnd(position);
+
+        String prefix = "";
+        String suffix = "";
+        if (end - start > MAX_LINE_LENGTH) {
+            int windowStart = Math.max(start, Math.min(position - MAX_LINE_LENGTH / 2, end - MAX_LINE_LENGTH));
+            int windowEnd = Math.min(end, windowStart + MAX_LINE_LENGTH);
+            if (windowStart > start)
+                prefix = ELLIPSIS;
+            if (windowEnd < end)
+                suffix = ELLIPSIS;
+            start = windowStart;
+            end = windowEnd;
         }
+        line = prefix + input.substring(start, end) + suffix;
+        indexInLine = prefix.length() + input.substring(start, position).length();
     }
 
     public String getUnderline() {
@@ -105,6 +152,14 @@ public class PositionInfo {
         return indexInLine;
     }
 
+    /**
+     * Return the offset of the position within the underlying source of the
+     * input, see {@link ParsingInput#sourceOffset(int)}
+     */
+    public long getSourceOffset() {
+        return input.sourceOffset(position);
+    }
+
     public String getPositionChar() {
         calculate();
         return positionChar;
@@ -1,7 +1,5 @@
 package com.github.ruediste.lambdaPegParser;
 
-import com.github.ruediste.lambdaPegParser.ParsingContext.StateSnapshot;
-
 /**
  * Prototype of the advice code used to transform the parser classes
  */
@@ -46,6 +44,41 @@ public class PrototypeParser extends Parser<ParsingContext<?>> {
         return null;
     }
 
+    /**
+     * call will be replaced with a constant, true in the diagnostic variant of
+     * the weaved class, which fires the rule events of the
+     * {@link ParsingContext}
+     */
+    private static boolean isDiagnostic() {
+        return false;
+    }
+
+    /**
+     * call will be replaced with a constant, true if the rule method might be
+     * left recursive (see
+     * {@link com.github.ruediste.lambdaPegParser.weaving.LeftRecursionAnalyzer}
+     * )
+     */
+    private static boolean isLeftRecursive() {
+        return true;
+    }
+
+    /**
+     * call will be replaced with a constant, true if the rule method has no
+     * arguments
+     */
+    private static boolean hasNoArgs() {
+        return false;
+    }
+
+    /**
+     * call will be replaced with a constant, true if memoization of the rule
+     * is decided at runtime (see {@link AdaptiveMemo})
+     */
+    private static boolean isAdaptiveMemo() {
+        return false;
+    }
+
     /**
      * code following this method call will be skipped until {@link #stopMemo()}
      * if no memoization is required
@@ -67,17 +100,22 @@ public class PrototypeParser extends Parser<ParsingContext<?>> {
     public Object prototypeAdvice() throws Throwable {
         ParsingContext<?> ctx = getParsingContext();
 
-        RuleLoggingInfo loggingInfo = new RuleLoggingInfo();
-        loggingInfo.arguments = getArgs();
-        loggingInfo.methodName = getMethodName();
-        loggingInfo.parserClass = getClass();
-        loggingInfo.argumentTypes = getArgumentTypes();
-        boolean oldResultIsRecursive = resultIsRecursive;
+        Object[] args = getArgs();
 
-        RuleInvocation invocation = new RuleInvocation(getMethodNumber(), loggingInfo.arguments, ctx.stateClone());
+        RuleLoggingInfo loggingInfo = null;
+        if (isDiagnostic()) {
+            loggingInfo = new RuleLoggingInfo();
+            loggingInfo.arguments = args;
+            loggingInfo.methodName = getMethodName();
+            loggingInfo.parserClass = getClass();
+            loggingInfo.argumentTypes = getArgumentTypes();
+        }
+        boolean oldResultIsRecursive = resultIsRecursive;
 
         // check for left recursions
-        {
+        RuleInvocation invocation = null;
+        if (isLeftRecursive()) {
+            invocation = new RuleInvocation(getMethodNumber(), args, ctx.stateClone());
             RuleInvocation existing = currentMethods.get(invocation);
             if (existing != null) {
                 // We ran into a left recursion.
@@ -86,11 +124,14 @@ public class PrototypeParser extends Parser<ParsingContext<?>> {
                 resultIsRecursive = true;
                 if (existing.seed != null) {
                     existing.seed.snapshot.restoreClone();
-                    loggingInfo.result = existing.seed.value;
-                    ctx.recursive(loggingInfo);
+                    if (isDiagnostic()) {
+                        loggingInfo.result = existing.seed.value;
+                        ctx.recursive(loggingInfo);
+                    }
                     return existing.seed.value;
                 } else {
-                    ctx.recursive(loggingInfo);
+                    if (isDiagnostic())
+                        ctx.recursive(loggingInfo);
                     throw ctx.noMatch();
                 }
             }
@@ -98,32 +139,61 @@ public class PrototypeParser extends Parser<ParsingContext<?>> {
 
         // check cache
         startMemo();
-        RuleCacheKey cacheKey = new RuleCacheKey();
-        cacheKey.args = loggingInfo.arguments;
-        cacheKey.state = ctx.stateClone();
-        cacheKey.methodNr = getMethodNumber();
-        {
+        boolean memoize = true;
+        if (isAdaptiveMemo())
+            memoize = adaptiveMemoStatistics.invoked(getMethodNumber(), getMethodName(), ctx.getIndex());
+        MemoTable memoTable = null;
+        int memoIndex = ctx.getIndex();
+        long memoStartState = 0;
+        RuleCacheKey cacheKey = null;
+        if (!memoize) {
+            // memoization currently turned off
+        } else if (hasNoArgs() && ctx.isMarkable()) {
+            memoTable = getMemoTable(getMethodNumber());
+            memoStartState = ctx.state().mark();
+            Object memoized = memoTable.lookup(ctx, memoIndex, memoStartState);
+            if (memoized != MemoTable.MISS)
+                return memoized;
+        } else {
+            cacheKey = new RuleCacheKey();
+            cacheKey.args = args;
+            cacheKey.state = ctx.stateClone();
+            cacheKey.methodNr = getMethodNumber();
             com.github.ruediste.lambdaPegParser.Parser.RuleCacheValue value = ruleCache.get(cacheKey);
-            ctx.checkedCache(cacheKey, value);
+            if (isDiagnostic())
+                ctx.checkedCache(cacheKey, value);
             if (value != null) {
+                ctx.examined(value.examinedEnd);
                 value.snapshot.restoreClone();
-                if (value.exception != null)
-                    throw value.exception;
+                if (value.failed)
+                    throw ctx.noMatch();
                 else
                     return value.result;
             }
         }
         stopMemo();
 
-        currentMethods.put(invocation, invocation);
+        if (isLeftRecursive())
+            currentMethods.put(invocation, invocation);
         resultIsRecursive = false;
 
-        ctx.entering(loggingInfo);
+        if (isDiagnostic())
+            ctx.entering(loggingInfo);
         boolean failed = false;
+        int startMark;
+        if (isLeftRecursive())
+            startMark = ctx.mark();
+        else
+            // only keep the input of the invocation available
+            startMark = ctx.retain();
+        // track the input examined by this invocation, to be able to keep
+        // the memoized result if the input is edited
+        startMemo();
+        int outerExaminedEnd = ctx.startExamining();
+        stopMemo();
         try {
             // first rule evaluation
             int startIndex = ctx.getIndex();
-            StateSnapshot startSnapshot = ctx.snapshot();
             int progress = startIndex;
             Object result;
 
@@ -132,7 +202,7 @@ public class PrototypeParser extends Parser<ParsingContext<?>> {
                 try {
                     result = sampleRule();
                 } catch (NoMatchException e) {
-                    if (invocation.seed != null) {
+                    if (isLeftRecursive() && invocation.seed != null) {
                         // this evaluation failed, break, use the
                         // last seed
                         invocation.seed.snapshot.restore();
@@ -142,7 +212,7 @@ public class PrototypeParser extends Parser<ParsingContext<?>> {
                         throw e;
                 }
 
-                if (invocation.recursive) {
+                if (isLeftRecursive() && invocation.recursive) {
                     // the invocation resulted in an recursion
 
                     if (invocation.seed != null && progress >= ctx.getIndex()) {
@@ -153,48 +223,72 @@ public class PrototypeParser extends Parser<ParsingContext<?>> {
                         break;
                     }
 
+                    if (!ctx.isResettable(startMark)) {
+                        // committed, the seed cannot be grown anymore
+                        break;
+                    }
+
                     // recursion, grow the seed
                     progress = ctx.getIndex();
-                    ctx.retrying(loggingInfo);
+                    if (isDiagnostic())
+                        ctx.retrying(loggingInfo);
                     invocation.recursive = false;
                     invocation.seed = new Seed(result, ctx.snapshot());
-                    startSnapshot.restoreClone();
+                    ctx.reset(startMark);
                 } else {
                     // no recursion, we are done
                     break;
                 }
 
             }
-            loggingInfo.result = result;
+            if (isDiagnostic())
+                loggingInfo.result = result;
             // cache result
             startMemo();
-            if (!resultIsRecursive) {
-                RuleCacheValue value = new RuleCacheValue();
-                value.result = result;
-                value.snapshot = ctx.snapshot();
-                ruleCache.put(cacheKey, value);
-                ctx.putCache(cacheKey, value);
+            if (memoize && !resultIsRecursive) {
+                if (memoTable != null)
+                    memoTable.put(ctx, memoIndex, memoStartState, result);
+                else {
+                    RuleCacheValue value = new RuleCacheValue();
+                    value.result = result;
+                    value.snapshot = ctx.snapshot();
+                    value.examinedEnd = ctx.getExaminedEnd();
+                    ruleCache.put(cacheKey, value);
+                    if (isDiagnostic())
+                        ctx.putCache(cacheKey, value);
+                }
             }
+            ctx.stopExamining(outerExaminedEnd);
             stopMemo();
             return result;
         } catch (Throwable t) {
-            ctx.failed(loggingInfo);
+            if (isDiagnostic())
+                ctx.failed(loggingInfo);
             failed = true;
             // cache result
             startMemo();
-            if (!resultIsRecursive) {
-                RuleCacheValue value = new RuleCacheValue();
-                value.snapshot = ctx.snapshot();
-                value.exception = t;
-                ruleCache.put(cacheKey, value);
-                ctx.putCache(cacheKey, value);
+            if (memoize && !resultIsRecursive && t instanceof NoMatchException) {
+                if (memoTable != null)
+                    memoTable.putFailure(ctx, memoIndex, memoStartState);
+                else {
+                    RuleCacheValue value = new RuleCacheValue();
+                    value.snapshot = ctx.snapshot();
+                    value.failed = true;
+                    value.examinedEnd = ctx.getExaminedEnd();
+                    ruleCache.put(cacheKey, value);
+                    if (isDiagnostic())
+                        ctx.putCache(cacheKey, value);
+                }
             }
+            ctx.stopExamining(outerExaminedEnd);
             stopMemo();
             throw t;
         } finally {
+            ctx.release(startMark);
+            if (isLeftRecursive())
+                currentMethods.remove(invocation);
             resultIsRecursive |= oldResultIsRecursive;
-            currentMethods.remove(invocation);
-            if (!failed) {
+            if (isDiagnostic() && !failed) {
                 ctx.leaving(loggingInfo);
             }
         }
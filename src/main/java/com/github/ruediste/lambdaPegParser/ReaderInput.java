@@ -0,0 +1,191 @@
+package com.github.ruediste.lambdaPegParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * {@link ParsingInput} reading from a {@link Reader} or an {@link InputStream}
+ * of unknown size. The indexes are char indexes, counted from the start of the
+ * stream.
+ *
+ * <p>
+ * Chars are read on demand into a window buffer. When the buffer is full, the
+ * chars before the {@link ParsingContext#getRetainedIndex() retained index} of
+ * the context are discarded, trying to keep the start of the retained line for
+ * error reporting. The buffer is only grown if no chars can be discarded. Thus
+ * the memory used depends on how far the grammar can backtrack, not on the
+ * size of the input.
+ * </p>
+ *
+ * <p>
+ * Each rule invocation keeps the input from its start position on available
+ * while running (see {@link ParsingContext#retain()}), as does each
+ * backtracking point. Therefore, input is discarded between invocations of the
+ * top level rule, for example when parsing one record at a time:
+ * </p>
+ * 
+ * <pre>
+ * while (ctx.hasNext())
+ *     process(parser.record());
+ * </pre>
+ * 
+ * <p>
+ * Accessing a discarded index raises an {@link IllegalStateException}.
+ * {@link #length()} reads the whole stream.
+ * </p>
+ */
+public class ReaderInput extends AbstractCharInput {
+
+    private final Reader reader;
+    private ParsingContext<?> ctx;
+
+    private char[] buffer;
+
+    /**
+     * index of the first char in the buffer
+     */
+    private int windowStart;
+
+    /**
+     * number of chars in the buffer
+     */
+    private int filled;
+
+    private int windowStartLineNr = 1;
+
+    private boolean eof;
+
+    public ReaderInput(Reader reader) {
+        this(reader, 8192);
+    }
+
+    /**
+     * @param initialCapacity
+     *            initial size of the window buffer, in chars
+     */
+    public ReaderInput(Reader reader, int initialCapacity) {
+        this.reader = reader;
+        buffer = new char[Math.max(initialCapacity, 2)];
+    }
+
+    public ReaderInput(InputStream in, Charset charset) {
+        this(new InputStreamReader(in, charset));
+    }
+
+    @Override
+    public void attach(ParsingContext<?> ctx) {
+        this.ctx = ctx;
+    }
+
+    /**
+     * Read chars until the given index is in the buffer or the end of the
+     * stream is reached
+     */
+    private void ensure(int index) {
+        while (index >= windowStart + filled && !eof) {
+            fill();
+        }
+    }
+
+    private void fill() {
+        if (filled == buffer.length) {
+            discard();
+            if (filled == buffer.length)
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        try {
+            int count = reader.read(buffer, filled, buffer.length - filled);
+            if (count == -1)
+                eof = true;
+            else
+                filled += count;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Discard the chars which are no longer needed
+     */
+    private void discard() {
+        if (ctx == null)
+            return;
+        int retained = Math.min(ctx.getRetainedIndex(), windowStart + filled);
+        if (retained <= windowStart)
+            return;
+
+        // keep the start of the retained line, if it is not too far back
+        int newStart = retained;
+        for (int idx = retained - 1; idx >= windowStart && retained - idx < buffer.length / 4; idx--) {
+            if (buffer[idx - windowStart] == '\n') {
+                newStart = idx + 1;
+                break;
+            }
+        }
+
+        int discarded = newStart - windowStart;
+        for (int i = 0; i < discarded; i++) {
+            if (buffer[i] == '\n')
+                windowStartLineNr++;
+        }
+        System.arraycopy(buffer, discarded, buffer, 0, filled - discarded);
+        filled -= discarded;
+        windowStart = newStart;
+    }
+
+    @Override
+    protected char charAt(int index) {
+        if (index < windowStart)
+            throw new IllegalStateException("Input before index " + windowStart + " has been discarded");
+        ensure(index);
+        return buffer[index - windowStart];
+    }
+
+    @Override
+    public boolean hasCodePointAt(int index) {
+        ensure(index);
+        return index < windowStart + filled;
+    }
+
+    @Override
+    public int length() {
+        while (!eof)
+            fill();
+        return windowStart + filled;
+    }
+
+    @Override
+    public String substring(int start, int end) {
+        if (start < windowStart)
+            throw new IllegalStateException("Input before index " + windowStart + " has been discarded");
+        ensure(end - 1);
+        return new String(buffer, start - windowStart, end - start);
+    }
+
+    @Override
+    public int getFirstAvailableIndex() {
+        return windowStart;
+    }
+
+    @Override
+    public int getFirstAvailableLineNr() {
+        return windowStartLineNr;
+    }
+
+    /**
+     * Return the current size of the window buffer, in chars
+     */
+    public int getBufferCapacity() {
+        return buffer.length;
+    }
+
+    @Override
+    public String toString() {
+        return "ReaderInput(window start: " + windowStart + " filled: " + filled + ")";
+    }
+}
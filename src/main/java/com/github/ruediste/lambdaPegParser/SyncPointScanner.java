@@ -0,0 +1,66 @@
+package com.github.ruediste.lambdaPegParser;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds positions in an input where parsing can safely be started, for
+ * example the start of a top level record. Used by the {@link ParallelParser}
+ * to split the input into chunks.
+ */
+@FunctionalInterface
+public interface SyncPointScanner {
+
+    /**
+     * Return the first sync point at or after the given position, or -1 if
+     * there is none.
+     */
+    int nextSyncPoint(CharSequence content, int from);
+
+    /**
+     * Sync points directly after each occurrence of a delimiter
+     */
+    static SyncPointScanner afterDelimiter(String delimiter) {
+        return (content, from) -> {
+            if (content instanceof String) {
+                int idx = ((String) content).indexOf(delimiter, from);
+                return idx < 0 ? -1 : idx + delimiter.length();
+            }
+            outer: for (int i = Math.max(0, from); i <= content.length() - delimiter.length(); i++) {
+                for (int j = 0; j < delimiter.length(); j++) {
+                    if (content.charAt(i + j) != delimiter.charAt(j))
+                        continue outer;
+                }
+                return i + delimiter.length();
+            }
+            return -1;
+        };
+    }
+
+    /**
+     * Sync points at the start of each line
+     */
+    static SyncPointScanner lineStart() {
+        return afterDelimiter("\n");
+    }
+
+    /**
+     * Sync points at the start of each match of the pattern
+     */
+    static SyncPointScanner atPattern(Pattern pattern) {
+        return (content, from) -> {
+            Matcher matcher = pattern.matcher(content);
+            return matcher.find(from) ? matcher.start() : -1;
+        };
+    }
+
+    /**
+     * Sync points directly after each match of the pattern
+     */
+    static SyncPointScanner afterPattern(Pattern pattern) {
+        return (content, from) -> {
+            Matcher matcher = pattern.matcher(content);
+            return matcher.find(from) ? matcher.end() : -1;
+        };
+    }
+}
@@ -0,0 +1,169 @@
+package com.github.ruediste.lambdaPegParser;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.github.ruediste.lambdaPegParser.TraceRecorder.EventKind;
+
+/**
+ * Converts a trace written by the {@link TraceRecorder} to the indented text
+ * format of the {@link Tracer}.
+ *
+ * <p>
+ * Usage from the command line:
+ *
+ * <pre>
+ * java com.github.ruediste.lambdaPegParser.TraceDecoder &lt;trace file&gt; [&lt;input file&gt;]
+ * </pre>
+ *
+ * If the parsed input is given, the current line is shown whenever the
+ * position changes, like the {@link Tracer} does.
+ * </p>
+ */
+public class TraceDecoder {
+
+    private final PrintWriter target;
+    private final ParsingInput input;
+    private final LineIndex lineIndex;
+    private String[] symbols;
+    private int depth;
+    private int position = -1;
+
+    /**
+     * @param input
+     *            the parsed input, or null
+     */
+    public TraceDecoder(Writer target, ParsingInput input) {
+        this.target = new PrintWriter(target);
+        this.input = input;
+        this.lineIndex = input == null ? null : new LineIndex(input);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: TraceDecoder <trace file> [<input file>]");
+            System.exit(1);
+        }
+        ParsingInput input = null;
+        if (args.length > 1)
+            input = new CharSequenceInput(
+                    new String(Files.readAllBytes(Paths.get(args[1])), StandardCharsets.UTF_8));
+        Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        new TraceDecoder(out, input).decode(Paths.get(args[0]));
+        out.flush();
+    }
+
+    /**
+     * Decode the given trace file
+     */
+    public void decode(Path trace) throws IOException {
+        long symbolsOffset = readSymbols(trace);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(trace), 1 << 16))) {
+            if (in.readInt() != TraceRecorder.MAGIC)
+                throw new IOException(trace + " is not a trace file");
+            int version = in.readInt();
+            if (version != TraceRecorder.VERSION)
+                throw new IOException("Unsupported trace version " + version);
+            long count = (symbolsOffset - TraceRecorder.HEADER_SIZE) / TraceRecorder.EVENT_SIZE;
+            for (long i = 0; i < count; i++) {
+                long first = in.readLong();
+                long second = in.readLong();
+                event(EventKind.values()[(int) (second & 0xFF)], (int) (first >>> 32), (int) first);
+            }
+        }
+        target.flush();
+    }
+
+    /**
+     * Read the symbols at the end of the trace and return their offset
+     */
+    private long readSymbols(Path trace) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(trace.toFile(), "r")) {
+            if (file.length() < TraceRecorder.HEADER_SIZE + 12)
+                throw new IOException(trace + " is not a trace file");
+            file.seek(file.length() - 8);
+            long offset = file.readLong();
+            file.seek(offset);
+            symbols = new String[file.readInt()];
+            for (int i = 0; i < symbols.length; i++) {
+                byte[] bytes = new byte[file.readInt()];
+                file.readFully(bytes);
+                symbols[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return offset;
+        }
+    }
+
+    private void event(EventKind kind, int id, int index) {
+        switch (kind) {
+        case ENTERING:
+            indent(depth, index);
+            target.println(symbols[id] + " Entering, index: " + index);
+            depth++;
+            break;
+        case FAILED:
+            depth--;
+            indent(depth, index);
+            target.println(symbols[id] + " Failed, index: " + index);
+            break;
+        case LEAVING:
+            depth--;
+            indent(depth, index);
+            target.println(symbols[id] + " Leaving, index: " + index);
+            break;
+        case RECURSIVE:
+            indent(depth + 1, index);
+            target.println(symbols[id] + " recursive, advancing to: " + index);
+            break;
+        case RETRYING:
+            indent(depth - 1, index);
+            target.println(symbols[id] + " Retrying, was at index: " + index);
+            break;
+        case EXPECTATION:
+            indent(depth, index);
+            target.println("index " + index + " unmet expectation: " + symbols[id]);
+            break;
+        case CACHE_MISS:
+        case CACHE_HIT:
+        case CACHE_HIT_FAILURE:
+            indent(depth, index);
+            target.println("checked cache of method " + id + " at index " + index + " resulting in "
+                    + (kind == EventKind.CACHE_MISS ? "miss" : kind == EventKind.CACHE_HIT ? "hit" : "failure"));
+            break;
+        case CACHE_PUT:
+        case CACHE_PUT_FAILURE:
+            indent(depth, index);
+            target.println("put " + (kind == EventKind.CACHE_PUT ? "value" : "failure") + " to cache of method " + id
+                    + " at index " + index);
+            break;
+        }
+    }
+
+    private void indent(int depth, int index) {
+        String indent = indentImpl(depth);
+        if (input != null && (position < index || position > index + 10)) {
+            PositionInfo info = new PositionInfo(input, index, lineIndex);
+            target.append(indent + "index " + index + " Line " + info.getLineNr() + "\n" + indent + info.getLine()
+                    + "\n" + indent + info.getUnderline(' ', '^') + "\n");
+            position = index;
+        }
+        target.append(indent);
+    }
+
+    private String indentImpl(int depth) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            sb.append("  ");
+        }
+        return sb.toString();
+    }
+}
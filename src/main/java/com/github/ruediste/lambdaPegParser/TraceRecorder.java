@@ -0,0 +1,343 @@
+package com.github.ruediste.lambdaPegParser;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records the rule execution of a {@link ParsingContext} in a compact binary
+ * format. Replaces the {@link Tracer} for real world inputs.
+ *
+ * <p>
+ * Each event is recorded as a fixed size entry consisting of the
+ * {@link EventKind kind}, the id of the rule (or of the expectation), the input
+ * index and a timestamp. The entries are written to a ring buffer, without
+ * formatting any text. The names of the rules and the expectations are written
+ * once, at the end of the trace. Use the {@link TraceDecoder} to convert a
+ * trace to text.
+ * </p>
+ *
+ * <p>
+ * Two modes are available:
+ * <ul>
+ * <li>{@link #toFile(ParsingContext, Path)}: a background thread writes the
+ * events to a file. If the ring buffer is full, the parsing thread waits for
+ * the background thread. {@link #close()} has to be called after parsing.</li>
+ * <li>{@link #flightRecorder(ParsingContext, int, Path)}: only the last events
+ * are kept. They are written to a file if the top level rule fails, or when
+ * calling {@link #dump(Path)}.</li>
+ * </ul>
+ * </p>
+ *
+ * <p>
+ * Like the {@link Tracer}, the recorder has to be created before the parsers
+ * (see {@link ParsingContext#isDiagnostic()}). Events are recorded from the
+ * parsing thread only.
+ * </p>
+ */
+public class TraceRecorder implements Closeable {
+
+    /**
+     * Kind of the recorded events. The ordinal is stored in the trace.
+     */
+    public enum EventKind {
+        ENTERING,
+        LEAVING,
+        FAILED,
+        RECURSIVE,
+        RETRYING,
+        /**
+         * The id is the id of the expectation
+         */
+        EXPECTATION,
+        /**
+         * The id of the cache events is the method number of the rule
+         */
+        CACHE_MISS,
+        CACHE_HIT,
+        CACHE_HIT_FAILURE,
+        CACHE_PUT,
+        CACHE_PUT_FAILURE
+    }
+
+    static final int MAGIC = 0x4C505452;
+    static final int VERSION = 1;
+
+    /**
+     * Size of the trace header in bytes
+     */
+    static final int HEADER_SIZE = 8;
+
+    /**
+     * Size of an event in bytes
+     */
+    static final int EVENT_SIZE = 16;
+
+    /**
+     * Default number of events buffered by {@link #toFile(ParsingContext, Path)}
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /**
+     * Two longs per event: (id << 32 | index) and (timestamp << 8 | kind)
+     */
+    private final long[] ring;
+    private final int mask;
+    private final boolean flight;
+    private final Path dumpFile;
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * Number of recorded events
+     */
+    private volatile long head;
+
+    /**
+     * Number of events written by the background thread
+     */
+    private volatile long tail;
+
+    private volatile boolean closed;
+    private volatile IOException writeFailure;
+    private final Thread writer;
+    private final DataOutputStream out;
+
+    private final List<String> symbols = new ArrayList<>();
+    private final HashMap<Class<?>, HashMap<String, Integer>> ruleIds = new HashMap<>();
+    private final HashMap<String, Integer> expectationIds = new HashMap<>();
+
+    private int depth;
+
+    private TraceRecorder(ParsingContext<?> ctx, int capacity, boolean flight, Path file) throws IOException {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("capacity has to be a power of two");
+        ring = new long[capacity * 2];
+        mask = capacity - 1;
+        this.flight = flight;
+        if (flight) {
+            dumpFile = file;
+            out = null;
+            writer = null;
+        } else {
+            dumpFile = null;
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+            writeHeader(out);
+            writer = new Thread(this::writeEvents, "lambdaPegParser trace writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        register(ctx);
+    }
+
+    /**
+     * Record all events to the given file. {@link #close()} has to be called
+     * after parsing.
+     */
+    public static TraceRecorder toFile(ParsingContext<?> ctx, Path file) throws IOException {
+        return toFile(ctx, file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Record all events to the given file, buffering up to the given number
+     * (a power of two) of events
+     */
+    public static TraceRecorder toFile(ParsingContext<?> ctx, Path file, int capacity) throws IOException {
+        return new TraceRecorder(ctx, capacity, false, file);
+    }
+
+    /**
+     * Keep the last events (a power of two) in memory, and write them to the
+     * dump file whenever the top level rule fails
+     *
+     * @param dumpFile
+     *            file written if parsing fails. If null, the events are only
+     *            written by {@link #dump(Path)}.
+     */
+    public static TraceRecorder flightRecorder(ParsingContext<?> ctx, int lastEvents, Path dumpFile) {
+        try {
+            return new TraceRecorder(ctx, lastEvents, true, dumpFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void register(ParsingContext<?> ctx) {
+        ctx.inputSetEvent.register(input -> depth = 0);
+        ctx.editEvent.register(edit -> depth = 0);
+        ctx.enteringEvent.register(info -> {
+            depth++;
+            record(EventKind.ENTERING, ruleId(info), info.index);
+        });
+        ctx.leavingEvent.register(info -> {
+            depth--;
+            record(EventKind.LEAVING, ruleId(info), info.index);
+        });
+        ctx.failedEvent.register(info -> {
+            depth--;
+            record(EventKind.FAILED, ruleId(info), info.index);
+            if (flight && depth == 0 && dumpFile != null)
+                dump(dumpFile);
+        });
+        ctx.recursiveEvent.register(info -> record(EventKind.RECURSIVE, ruleId(info), info.index));
+        ctx.retryingEvent.register(info -> record(EventKind.RETRYING, ruleId(info), info.index));
+        ctx.expectationRegistered.register(e -> record(EventKind.EXPECTATION, expectationId(e.expectation), e.index));
+        ctx.checkedCacheEvent.register(e -> {
+            EventKind kind = e.value == null ? EventKind.CACHE_MISS
+                    : e.value.failed ? EventKind.CACHE_HIT_FAILURE : EventKind.CACHE_HIT;
+            record(kind, e.key.methodNr, e.key.state.index);
+        });
+        ctx.putCacheEvent.register(e -> record(e.value.failed ? EventKind.CACHE_PUT_FAILURE : EventKind.CACHE_PUT,
+                e.key.methodNr, e.key.state.index));
+    }
+
+    private int ruleId(RuleLoggingInfo info) {
+        HashMap<String, Integer> ids = ruleIds.computeIfAbsent(info.parserClass, c -> new HashMap<>());
+        Integer id = ids.get(info.methodName);
+        if (id == null) {
+            id = symbol(info.parserClass.getName() + "." + info.methodName);
+            ids.put(info.methodName, id);
+        }
+        return id;
+    }
+
+    private int expectationId(String expectation) {
+        Integer id = expectationIds.get(expectation);
+        if (id == null) {
+            id = symbol(expectation);
+            expectationIds.put(expectation, id);
+        }
+        return id;
+    }
+
+    private int symbol(String name) {
+        synchronized (symbols) {
+            symbols.add(name);
+            return symbols.size() - 1;
+        }
+    }
+
+    private void record(EventKind kind, int id, int index) {
+        long h = head;
+        if (!flight) {
+            while (h - tail > mask) {
+                // buffer full, wait for the writer
+                Thread.yield();
+            }
+        }
+        int slot = (int) (h & mask) * 2;
+        ring[slot] = ((long) id << 32) | (index & 0xFFFFFFFFL);
+        ring[slot + 1] = ((System.nanoTime() - startNanos) << 8) | kind.ordinal();
+        head = h + 1;
+    }
+
+    /**
+     * Loop of the background thread, writing the recorded events
+     */
+    private void writeEvents() {
+        while (true) {
+            long t = tail;
+            long h = head;
+            if (t == h) {
+                if (closed)
+                    break;
+                LockSupport.parkNanos(100_000);
+                continue;
+            }
+            if (writeFailure == null) {
+                try {
+                    for (; t < h; t++) {
+                        int slot = (int) (t & mask) * 2;
+                        out.writeLong(ring[slot]);
+                        out.writeLong(ring[slot + 1]);
+                    }
+                } catch (IOException e) {
+                    writeFailure = e;
+                }
+            }
+            tail = h;
+        }
+    }
+
+    /**
+     * Return the number of events recorded so far
+     */
+    public long getEventCount() {
+        return head;
+    }
+
+    /**
+     * Write the events kept in memory to the given file. Only available for
+     * {@link #flightRecorder(ParsingContext, int, Path) flight recorders}.
+     */
+    public void dump(Path file) {
+        if (!flight)
+            throw new IllegalStateException("Only flight recorders can be dumped");
+        try (DataOutputStream dumpOut = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            writeHeader(dumpOut);
+            long h = head;
+            for (long i = Math.max(0, h - ring.length / 2); i < h; i++) {
+                int slot = (int) (i & mask) * 2;
+                dumpOut.writeLong(ring[slot]);
+                dumpOut.writeLong(ring[slot + 1]);
+            }
+            writeTrailer(dumpOut, HEADER_SIZE + (h - Math.max(0, h - ring.length / 2)) * EVENT_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error while dumping trace to " + file, e);
+        }
+    }
+
+    /**
+     * Wait until all recorded events have been written and close the trace
+     * file. Does nothing for flight recorders.
+     */
+    @Override
+    public void close() throws IOException {
+        if (flight || closed)
+            return;
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing the trace", e);
+        }
+        try {
+            if (writeFailure != null)
+                throw writeFailure;
+            writeTrailer(out, HEADER_SIZE + head * EVENT_SIZE);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /**
+     * Write the symbols, followed by the offset of the symbols
+     */
+    private void writeTrailer(DataOutputStream out, long offset) throws IOException {
+        synchronized (symbols) {
+            out.writeInt(symbols.size());
+            for (String symbol : symbols) {
+                byte[] bytes = symbol.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+        out.writeLong(offset);
+        out.flush();
+    }
+}
@@ -6,6 +6,12 @@ import java.io.Writer;
 
 /**
  * Utility class to trace the rule execution of a {@link ParsingContext}
+ * 
+ * <p>
+ * The trace is written as text while parsing, which is slow. For larger inputs,
+ * use the {@link TraceRecorder} and convert the trace to the same text format
+ * using the {@link TraceDecoder}.
+ * </p>
  */
 public class Tracer {
 
@@ -55,7 +61,10 @@ public class Tracer {
     }
 
     private void register(ParsingContext<?> ctx) {
-        ctx.contentSetEvent.register(content -> {
+        ctx.inputSetEvent.register(input -> {
+            depth = 0;
+        });
+        ctx.editEvent.register(edit -> {
             depth = 0;
         });
 
@@ -0,0 +1,354 @@
+package com.github.ruediste.lambdaPegParser.weaving;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+
+import com.github.ruediste.lambdaPegParser.NoMatchException;
+import com.github.ruediste.lambdaPegParser.ParsingContext;
+
+/**
+ * Generates the delegate classes used by the
+ * {@link com.github.ruediste.lambdaPegParser.ParserFactory} to expose a
+ * weaved parser as instance of the original parser class.
+ *
+ * <p>
+ * The weaved class has the same name as the parser class but is defined by a
+ * different class loader. Thus the delegate, a subclass of the parser class,
+ * cannot reference the weaved class directly. Instead, each overridden method
+ * invokes the corresponding method of the weaved class through a
+ * {@link MethodHandle} stored in a static final field, which the JIT treats as
+ * a constant and inlines. The invocations are wrapped with
+ * {@link ParsingContext#enteringExternalInvocation()} and
+ * {@link ParsingContext#leavingExternalInvocation(NoMatchException)}.
+ * </p>
+ *
+ * <p>
+ * The delegate class is defined in the class loader and package of the parser
+ * class, allowing to override package private methods.
+ * </p>
+ */
+public class DelegateClassGenerator {
+
+    private static final String DELEGATE_FIELD = "lambdaPeg$delegate";
+    private static final String CONTEXT_FIELD = "lambdaPeg$ctx";
+    private static final String HANDLE_FIELD_PREFIX = "lambdaPeg$handle$";
+
+    private static final Type OBJECT_TYPE = Type.getType(Object.class);
+    private static final Type METHOD_HANDLE_TYPE = Type.getType(MethodHandle.class);
+    private static final Type CONTEXT_TYPE = Type.getType(ParsingContext.class);
+    private static final Type NO_MATCH_TYPE = Type.getType(NoMatchException.class);
+    private static final org.objectweb.asm.commons.Method LEAVING = org.objectweb.asm.commons.Method
+            .getMethod("com.github.ruediste.lambdaPegParser.NoMatchException leavingExternalInvocation("
+                    + "com.github.ruediste.lambdaPegParser.NoMatchException)");
+    private static final org.objectweb.asm.commons.Method ENTERING = org.objectweb.asm.commons.Method
+            .getMethod("void enteringExternalInvocation()");
+
+    /**
+     * Method handles of the delegate classes, by class name. Handed over to
+     * the static initializer of the delegate class.
+     */
+    private static final Map<String, MethodHandle[]> pendingHandles = new ConcurrentHashMap<>();
+
+    private DelegateClassGenerator() {
+    }
+
+    /**
+     * Marker interface implemented by the generated delegate classes
+     */
+    public interface Delegate {
+    }
+
+    /**
+     * Called by the static initializer of the generated delegate classes
+     */
+    public static MethodHandle[] takeHandles(String delegateClassName) {
+        return Objects.requireNonNull(pendingHandles.remove(delegateClassName),
+                "No method handles registered for " + delegateClassName);
+    }
+
+    /**
+     * Generate and define a delegate class.
+     *
+     * @param parserClass
+     *            the original parser class, used as super class of the
+     *            delegate
+     * @param weavedClass
+     *            the weaved parser class the invocations are delegated to
+     * @param parsingContextType
+     *            type of the parameter of the parser class constructor
+     * @param suffix
+     *            appended to the name of the parser class to form the name of
+     *            the delegate class
+     * @return the constructor of the delegate class, taking the parsing
+     *         context and the instance of the weaved class
+     */
+    public static Constructor<?> defineDelegateClass(Class<?> parserClass, Class<?> weavedClass,
+            Class<?> parsingContextType, String suffix) {
+        String className = parserClass.getName() + "$$LambdaPegDelegate" + suffix;
+        List<Method> methods = getDelegatedMethods(parserClass);
+
+        MethodHandle[] handles = new MethodHandle[methods.size()];
+        for (int i = 0; i < methods.size(); i++) {
+            Method method = methods.get(i);
+            Method target = findTarget(weavedClass, method);
+            target.setAccessible(true);
+            try {
+                handles[i] = MethodHandles.lookup().unreflect(target).asType(MethodType
+                        .methodType(method.getReturnType(), Object.class).appendParameterTypes(method.getParameterTypes()));
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Error while accessing " + target, e);
+            }
+        }
+
+        byte[] bytes = generate(className, parserClass, parsingContextType, methods);
+        pendingHandles.put(className, handles);
+        try {
+            Class<?> delegateClass = defineClass(parserClass, className, bytes);
+            // run the static initializer while the handles are registered
+            Class.forName(className, true, delegateClass.getClassLoader());
+            return delegateClass.getConstructor(parsingContextType, Object.class);
+        } catch (NoSuchMethodException | ClassNotFoundException e) {
+            throw new RuntimeException("Error while defining delegate class " + className, e);
+        } finally {
+            pendingHandles.remove(className);
+        }
+    }
+
+    /**
+     * Determine the methods to override: all non-final, non-static methods
+     * visible to the delegate, the most specific declaration for each
+     * signature. Methods declared by {@link Object} are not delegated, they
+     * cannot be made accessible on recent JDKs.
+     */
+    static List<Method> getDelegatedMethods(Class<?> parserClass) {
+        List<Method> methods = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (Class<?> cls = parserClass; cls != null && cls != Object.class; cls = cls.getSuperclass()) {
+            for (Method method : cls.getDeclaredMethods()) {
+                String key = method.getName() + Type.getMethodDescriptor(method);
+                if (!seen.add(key))
+                    continue;
+                int modifiers = method.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isPrivate(modifiers) || Modifier.isFinal(modifiers)
+                        || method.isSynthetic() || method.isBridge() || "finalize".equals(method.getName()))
+                    continue;
+                // package private methods can only be overridden from within
+                // the same runtime package
+                if (!Modifier.isPublic(modifiers) && !Modifier.isProtected(modifiers)
+                        && (cls.getClassLoader() != parserClass.getClassLoader()
+                                || !packageName(cls).equals(packageName(parserClass))))
+                    continue;
+                methods.add(method);
+            }
+        }
+        return methods;
+    }
+
+    private static String packageName(Class<?> cls) {
+        String name = cls.getName();
+        int idx = name.lastIndexOf('.');
+        return idx < 0 ? "" : name.substring(0, idx);
+    }
+
+    /**
+     * Find the method of the weaved class corresponding to a method of the
+     * parser class. Nested classes of the parser class are defined again along
+     * with the weaved class, therefore the parameter types are compared by
+     * name.
+     */
+    private static Method findTarget(Class<?> weavedClass, Method method) {
+        String[] parameterTypes = Arrays.stream(method.getParameterTypes()).map(Class::getName)
+                .toArray(String[]::new);
+        for (Class<?> cls = weavedClass; cls != null; cls = cls.getSuperclass()) {
+            for (Method candidate : cls.getDeclaredMethods()) {
+                if (candidate.getName().equals(method.getName()) && Arrays.equals(parameterTypes,
+                        Arrays.stream(candidate.getParameterTypes()).map(Class::getName).toArray(String[]::new)))
+                    return candidate;
+            }
+        }
+        throw new RuntimeException("Method " + method + " not found in weaved class");
+    }
+
+    private static byte[] generate(String className, Class<?> parserClass, Class<?> parsingContextType,
+            List<Method> methods) {
+        String internalName = className.replace('.', '/');
+        Type type = Type.getObjectType(internalName);
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS + ClassWriter.COMPUTE_FRAMES) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                // only exception types are merged, all of them Throwables
+                return "java/lang/Throwable";
+            }
+        };
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER | Opcodes.ACC_SYNTHETIC, internalName, null,
+                Type.getInternalName(parserClass), new String[] { Type.getInternalName(Delegate.class) });
+
+        cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, DELEGATE_FIELD, OBJECT_TYPE.getDescriptor(), null,
+                null).visitEnd();
+        cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, CONTEXT_FIELD, CONTEXT_TYPE.getDescriptor(), null,
+                null).visitEnd();
+        for (int i = 0; i < methods.size(); i++) {
+            cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, HANDLE_FIELD_PREFIX + i,
+                    METHOD_HANDLE_TYPE.getDescriptor(), null, null).visitEnd();
+        }
+
+        // static initializer, fetching the method handles
+        {
+            GeneratorAdapter mg = new GeneratorAdapter(Opcodes.ACC_STATIC,
+                    org.objectweb.asm.commons.Method.getMethod("void <clinit>()"), null, null, cw);
+            mg.push(className);
+            mg.invokeStatic(Type.getType(DelegateClassGenerator.class), org.objectweb.asm.commons.Method
+                    .getMethod("java.lang.invoke.MethodHandle[] takeHandles(String)"));
+            for (int i = 0; i < methods.size(); i++) {
+                mg.dup();
+                mg.push(i);
+                mg.arrayLoad(METHOD_HANDLE_TYPE);
+                mg.putStatic(type, HANDLE_FIELD_PREFIX + i, METHOD_HANDLE_TYPE);
+            }
+            mg.pop();
+            mg.returnValue();
+            mg.endMethod();
+        }
+
+        // constructor. The fields are assigned before the super constructor
+        // is invoked, to support invocations from within the constructor
+        {
+            Type contextType = Type.getType(parsingContextType);
+            GeneratorAdapter mg = new GeneratorAdapter(Opcodes.ACC_PUBLIC, new org.objectweb.asm.commons.Method(
+                    "<init>", Type.VOID_TYPE, new Type[] { contextType, OBJECT_TYPE }), null, null, cw);
+            mg.loadThis();
+            mg.loadArg(1);
+            mg.putField(type, DELEGATE_FIELD, OBJECT_TYPE);
+            mg.loadThis();
+            mg.loadArg(0);
+            mg.putField(type, CONTEXT_FIELD, CONTEXT_TYPE);
+            mg.loadThis();
+            mg.loadArg(0);
+            mg.invokeConstructor(Type.getType(parserClass),
+                    new org.objectweb.asm.commons.Method("<init>", Type.VOID_TYPE, new Type[] { contextType }));
+            mg.returnValue();
+            mg.endMethod();
+        }
+
+        for (int i = 0; i < methods.size(); i++) {
+            generateMethod(cw, type, i, methods.get(i));
+        }
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void generateMethod(ClassWriter cw, Type type, int nr, Method method) {
+        org.objectweb.asm.commons.Method m = org.objectweb.asm.commons.Method.getMethod(method);
+        int access = method.getModifiers() & (Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED);
+        GeneratorAdapter mg = new GeneratorAdapter(access, m, null, null, cw);
+
+        Label start = new Label();
+        Label end = new Label();
+        Label noMatch = new Label();
+        Label other = new Label();
+        mg.visitTryCatchBlock(start, end, noMatch, NO_MATCH_TYPE.getInternalName());
+        mg.visitTryCatchBlock(start, end, other, null);
+
+        mg.loadThis();
+        mg.getField(type, CONTEXT_FIELD, CONTEXT_TYPE);
+        mg.invokeVirtual(CONTEXT_TYPE, ENTERING);
+
+        mg.mark(start);
+        mg.getStatic(type, HANDLE_FIELD_PREFIX + nr, METHOD_HANDLE_TYPE);
+        mg.loadThis();
+        mg.getField(type, DELEGATE_FIELD, OBJECT_TYPE);
+        mg.loadArgs();
+        Type[] handleArgs = new Type[m.getArgumentTypes().length + 1];
+        handleArgs[0] = OBJECT_TYPE;
+        System.arraycopy(m.getArgumentTypes(), 0, handleArgs, 1, m.getArgumentTypes().length);
+        mg.invokeVirtual(METHOD_HANDLE_TYPE,
+                new org.objectweb.asm.commons.Method("invokeExact", m.getReturnType(), handleArgs));
+        mg.mark(end);
+
+        // normal completion
+        int result = -1;
+        if (m.getReturnType().getSort() != Type.VOID) {
+            result = mg.newLocal(m.getReturnType());
+            mg.storeLocal(result);
+        }
+        mg.loadThis();
+        mg.getField(type, CONTEXT_FIELD, CONTEXT_TYPE);
+        mg.visitInsn(Opcodes.ACONST_NULL);
+        mg.invokeVirtual(CONTEXT_TYPE, LEAVING);
+        mg.pop();
+        if (result >= 0)
+            mg.loadLocal(result);
+        mg.returnValue();
+
+        // rule failed
+        mg.mark(noMatch);
+        int failure = mg.newLocal(NO_MATCH_TYPE);
+        mg.storeLocal(failure);
+        mg.loadThis();
+        mg.getField(type, CONTEXT_FIELD, CONTEXT_TYPE);
+        mg.loadLocal(failure);
+        mg.invokeVirtual(CONTEXT_TYPE, LEAVING);
+        mg.throwException();
+
+        // other exception
+        mg.mark(other);
+        int t = mg.newLocal(Type.getType(Throwable.class));
+        mg.storeLocal(t);
+        mg.loadThis();
+        mg.getField(type, CONTEXT_FIELD, CONTEXT_TYPE);
+        mg.visitInsn(Opcodes.ACONST_NULL);
+        mg.invokeVirtual(CONTEXT_TYPE, LEAVING);
+        mg.pop();
+        mg.loadLocal(t);
+        mg.throwException();
+
+        mg.endMethod();
+    }
+
+    /**
+     * Define a class in the class loader and package of the parser class.
+     * Uses {@code Lookup.defineClass()} if available (Java 9+) and falls back
+     * to {@code ClassLoader.defineClass()}.
+     */
+    private static Class<?> defineClass(Class<?> parserClass, String className, byte[] bytes) {
+        try {
+            Method privateLookupIn = MethodHandles.class.getMethod("privateLookupIn", Class.class, Lookup.class);
+            Lookup lookup = (Lookup) privateLookupIn.invoke(null, parserClass, MethodHandles.lookup());
+            return (Class<?>) Lookup.class.getMethod("defineClass", byte[].class).invoke(lookup, bytes);
+        } catch (NoSuchMethodException e) {
+            // Java 8
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new RuntimeException("Error while defining " + className, e);
+        }
+        try {
+            Method defineClass = ClassLoader.class.getDeclaredMethod("defineClass", String.class, byte[].class,
+                    int.class, int.class, java.security.ProtectionDomain.class);
+            defineClass.setAccessible(true);
+            return (Class<?>) defineClass.invoke(parserClass.getClassLoader(), className, bytes, 0, bytes.length,
+                    parserClass.getProtectionDomain());
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            throw new RuntimeException("Error while defining " + className, e);
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package com.github.ruediste.lambdaPegParser.weaving;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.Frame;
+import org.objectweb.asm.tree.analysis.SourceInterpreter;
+import org.objectweb.asm.tree.analysis.SourceValue;
+
+import com.github.ruediste.lambdaPegParser.ChoicePrediction;
+
+/**
+ * Determines the first characters matched by the choices passed to
+ * {@code FirstOf()} and replaces the invocations with
+ * {@code PredictedFirstOf()}.
+ *
+ * <p>
+ * The first set of a choice is known if the lambda expression or method
+ * reference of the choice starts by invoking {@code Str()} with a non-empty
+ * constant, {@code CharRange()} with constant bounds or a method of the parser
+ * class whose first set is known. Only loads, constants, the creation of
+ * lambda expressions and the start of a string concatenation may precede the
+ * invocation, and no try/catch block or jump target. In all other cases, the
+ * first set is unknown and the choice is always tried.
+ * </p>
+ */
+public class FirstSetAnalyzer {
+
+    private static final Set<String> STR_DESCRIPTORS = new HashSet<>(
+            Arrays.asList("(Ljava/lang/String;)Ljava/lang/String;", "(Ljava/lang/String;Ljava/lang/Object;)Ljava/lang/Object;",
+                    "(Ljava/lang/String;Ljava/util/function/Supplier;)Ljava/lang/Object;"));
+
+    private static final String STRING_BUILDER = "java/lang/StringBuilder";
+
+    private static final String PREDICTIONS_DESC = Type.getDescriptor(ChoicePrediction[].class);
+
+    private final ClassNode cn;
+
+    private int predictionsFieldCount;
+
+    /**
+     * encoded predictions of the methods, by name and descriptor
+     */
+    private final Map<String, String> predictions = new HashMap<>();
+
+    private final Set<String> inProgress = new HashSet<>();
+
+    public FirstSetAnalyzer(ClassNode cn) {
+        this.cn = cn;
+    }
+
+    /**
+     * Replace the invocations of {@code FirstOf()} in all methods of the class
+     * with {@code PredictedFirstOf()} if the first set of at least one choice
+     * is known.
+     */
+    public void rewriteFirstOfInvocations() {
+        for (MethodNode method : cn.methods) {
+            if ((method.access & Opcodes.ACC_STATIC) != 0 || method.instructions.size() == 0)
+                continue;
+            if (!containsFirstOf(method))
+                continue;
+            Frame<SourceValue>[] frames;
+            try {
+                frames = new Analyzer<>(new SourceInterpreter()).analyze(cn.name, method);
+            } catch (AnalyzerException e) {
+                continue;
+            }
+
+            // determine all predictions before modifying the instructions
+            Map<MethodInsnNode, String> rewrites = new HashMap<>();
+            for (AbstractInsnNode insn : method.instructions.toArray()) {
+                if (isFirstOf(insn)) {
+                    String prediction = predictChoices(method, frames, (MethodInsnNode) insn);
+                    if (prediction != null)
+                        rewrites.put((MethodInsnNode) insn, prediction);
+                }
+            }
+
+            // rewrite the invocations. The predictions are decoded once per
+            // invocation and kept in a static field
+            for (Map.Entry<MethodInsnNode, String> entry : rewrites.entrySet()) {
+                MethodInsnNode firstOf = entry.getKey();
+                String predictionsField = "lambdaPeg$predictions$" + predictionsFieldCount++;
+                cn.fields.add(new FieldNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC,
+                        predictionsField, PREDICTIONS_DESC, null, null));
+
+                InsnList load = new InsnList();
+                LabelNode initialized = new LabelNode();
+                load.add(new FieldInsnNode(Opcodes.GETSTATIC, cn.name, predictionsField, PREDICTIONS_DESC));
+                load.add(new InsnNode(Opcodes.DUP));
+                load.add(new JumpInsnNode(Opcodes.IFNONNULL, initialized));
+                load.add(new InsnNode(Opcodes.POP));
+                load.add(new LdcInsnNode(entry.getValue()));
+                load.add(new MethodInsnNode(Opcodes.INVOKESTATIC, Type.getInternalName(ChoicePrediction.class),
+                        "parse", Type.getMethodDescriptor(Type.getType(PREDICTIONS_DESC), Type.getType(String.class)),
+                        false));
+                load.add(new InsnNode(Opcodes.DUP));
+                load.add(new FieldInsnNode(Opcodes.PUTSTATIC, cn.name, predictionsField, PREDICTIONS_DESC));
+                load.add(initialized);
+                method.instructions.insertBefore(firstOf, load);
+
+                Type[] argumentTypes = Type.getArgumentTypes(firstOf.desc);
+                firstOf.name = "PredictedFirstOf";
+                firstOf.desc = Type.getMethodDescriptor(Type.getReturnType(firstOf.desc), argumentTypes[0],
+                        Type.getType(PREDICTIONS_DESC));
+            }
+        }
+    }
+
+    private boolean containsFirstOf(MethodNode method) {
+        for (AbstractInsnNode insn : method.instructions.toArray()) {
+            if (isFirstOf(insn))
+                return true;
+        }
+        return false;
+    }
+
+    private boolean isFirstOf(AbstractInsnNode insn) {
+        if (insn.getOpcode() != Opcodes.INVOKEVIRTUAL)
+            return false;
+        MethodInsnNode methodInsn = (MethodInsnNode) insn;
+        return "FirstOf".equals(methodInsn.name)
+                && ("([Ljava/util/function/Supplier;)Ljava/lang/Object;".equals(methodInsn.desc)
+                        || "([Ljava/lang/Runnable;)V".equals(methodInsn.desc));
+    }
+
+    /**
+     * Return the encoded predictions for the choices passed to the given
+     * invocation of {@code FirstOf()}, or null if no choice is known.
+     */
+    private String predictChoices(MethodNode method, Frame<SourceValue>[] frames, MethodInsnNode firstOf) {
+        Frame<SourceValue> frame = frames[method.instructions.indexOf(firstOf)];
+        if (frame == null)
+            return null;
+
+        // the receiver has to be this
+        AbstractInsnNode receiver = singleSource(frame.getStack(frame.getStackSize() - 2));
+        if (receiver == null || receiver.getOpcode() != Opcodes.ALOAD || ((VarInsnNode) receiver).var != 0)
+            return null;
+
+        // the choices have to be a freshly created array of constant size
+        AbstractInsnNode array = singleSource(frame.getStack(frame.getStackSize() - 1));
+        if (array == null || array.getOpcode() != Opcodes.ANEWARRAY)
+            return null;
+        Frame<SourceValue> arrayFrame = frames[method.instructions.indexOf(array)];
+        Integer size = intConstant(singleSource(arrayFrame.getStack(arrayFrame.getStackSize() - 1)));
+        if (size == null)
+            return null;
+
+        // determine the elements stored into the array
+        Handle[] elements = new Handle[size];
+        boolean[] stored = new boolean[size];
+        for (AbstractInsnNode insn : method.instructions.toArray()) {
+            if (insn.getOpcode() != Opcodes.AASTORE)
+                continue;
+            Frame<SourceValue> storeFrame = frames[method.instructions.indexOf(insn)];
+            if (storeFrame == null)
+                continue;
+            int top = storeFrame.getStackSize();
+            AbstractInsnNode arrayRef = singleSource(storeFrame.getStack(top - 3));
+            if (arrayRef == null || arrayRef.getOpcode() != Opcodes.DUP)
+                continue;
+            Frame<SourceValue> dupFrame = frames[method.instructions.indexOf(arrayRef)];
+            if (dupFrame == null || singleSource(dupFrame.getStack(dupFrame.getStackSize() - 1)) != array)
+                continue;
+            Integer index = intConstant(singleSource(storeFrame.getStack(top - 2)));
+            if (index == null || index < 0 || index >= size || stored[index])
+                return null;
+            stored[index] = true;
+            elements[index] = lambdaImplementation(singleSource(storeFrame.getStack(top - 1)));
+        }
+
+        // determine the predictions
+        StringBuilder sb = new StringBuilder();
+        boolean anyKnown = false;
+        for (Handle element : elements) {
+            String prediction = ChoicePrediction.UNKNOWN;
+            if (element != null && cn.name.equals(element.getOwner()))
+                prediction = getPrediction(element.getName(), element.getDesc());
+            anyKnown |= !ChoicePrediction.UNKNOWN.equals(prediction);
+            sb.append(prediction);
+        }
+        return anyKnown ? sb.toString() : null;
+    }
+
+    private AbstractInsnNode singleSource(SourceValue value) {
+        if (value == null || value.insns.size() != 1)
+            return null;
+        return value.insns.iterator().next();
+    }
+
+    /**
+     * Return the implementation method of a lambda expression or method
+     * reference created by the given instruction, or null if the instruction
+     * does not create a lambda.
+     */
+    private Handle lambdaImplementation(AbstractInsnNode insn) {
+        if (!(insn instanceof InvokeDynamicInsnNode))
+            return null;
+        InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode) insn;
+        if (!"java/lang/invoke/LambdaMetafactory".equals(indy.bsm.getOwner()) || indy.bsmArgs.length < 2
+                || !(indy.bsmArgs[1] instanceof Handle))
+            return null;
+        return (Handle) indy.bsmArgs[1];
+    }
+
+    private Integer intConstant(AbstractInsnNode insn) {
+        if (insn == null)
+            return null;
+        int opcode = insn.getOpcode();
+        if (opcode >= Opcodes.ICONST_M1 && opcode <= Opcodes.ICONST_5)
+            return opcode - Opcodes.ICONST_0;
+        if (opcode == Opcodes.BIPUSH || opcode == Opcodes.SIPUSH)
+            return ((IntInsnNode) insn).operand;
+        if (opcode == Opcodes.LDC && ((LdcInsnNode) insn).cst instanceof Integer)
+            return (Integer) ((LdcInsnNode) insn).cst;
+        return null;
+    }
+
+    /**
+     * Return the encoded prediction of a method of the parser class.
+     */
+    private String getPrediction(String name, String desc) {
+        String key = name + desc;
+        String result = predictions.get(key);
+        if (result != null)
+            return result;
+        if (!inProgress.add(key))
+            // recursion
+            return ChoicePrediction.UNKNOWN;
+        try {
+            result = ChoicePrediction.UNKNOWN;
+            for (MethodNode method : cn.methods) {
+                if (name.equals(method.name) && desc.equals(method.desc)) {
+                    result = calculatePrediction(method);
+                    break;
+                }
+            }
+        } finally {
+            inProgress.remove(key);
+        }
+        predictions.put(key, result);
+        return result;
+    }
+
+    private String calculatePrediction(MethodNode method) {
+        if ((method.access & Opcodes.ACC_STATIC) != 0)
+            return ChoicePrediction.UNKNOWN;
+
+        // the simulation runs straight through the instructions, which is only
+        // valid if no try/catch range or jump target precedes the invocation
+        Set<LabelNode> controlFlowLabels = controlFlowLabels(method);
+
+        // simulate the operand stack up to the first method invocation
+        List<AbstractInsnNode> stack = new ArrayList<>();
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (insn instanceof LabelNode && controlFlowLabels.contains(insn))
+                return ChoicePrediction.UNKNOWN;
+            if (insn.getOpcode() == -1)
+                // labels, line numbers, frames
+                continue;
+            if (isSimplePush(insn)) {
+                stack.add(insn);
+            } else if (insn instanceof InvokeDynamicInsnNode) {
+                int argCount = Type.getArgumentTypes(((InvokeDynamicInsnNode) insn).desc).length;
+                if (argCount > stack.size())
+                    return ChoicePrediction.UNKNOWN;
+                stack.subList(stack.size() - argCount, stack.size()).clear();
+                stack.add(insn);
+            } else if (insn.getOpcode() == Opcodes.NEW && STRING_BUILDER.equals(((TypeInsnNode) insn).desc)) {
+                // start of a string concatenation
+                stack.add(insn);
+            } else if (insn.getOpcode() == Opcodes.DUP && !stack.isEmpty()) {
+                stack.add(stack.get(stack.size() - 1));
+            } else if (insn.getOpcode() == Opcodes.INVOKESPECIAL && STRING_BUILDER.equals(((MethodInsnNode) insn).owner)
+                    && "<init>".equals(((MethodInsnNode) insn).name)
+                    && "()V".equals(((MethodInsnNode) insn).desc) && !stack.isEmpty()) {
+                stack.remove(stack.size() - 1);
+            } else if (insn instanceof MethodInsnNode) {
+                return invocationPrediction((MethodInsnNode) insn, stack);
+            } else
+                return ChoicePrediction.UNKNOWN;
+        }
+        return ChoicePrediction.UNKNOWN;
+    }
+
+    /**
+     * Return the labels delimiting try/catch blocks and the targets of jumps
+     */
+    private Set<LabelNode> controlFlowLabels(MethodNode method) {
+        Set<LabelNode> result = new HashSet<>();
+        for (TryCatchBlockNode block : method.tryCatchBlocks) {
+            result.add(block.start);
+            result.add(block.end);
+            result.add(block.handler);
+        }
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (insn instanceof JumpInsnNode)
+                result.add(((JumpInsnNode) insn).label);
+            else if (insn instanceof TableSwitchInsnNode) {
+                result.add(((TableSwitchInsnNode) insn).dflt);
+                result.addAll(((TableSwitchInsnNode) insn).labels);
+            } else if (insn instanceof LookupSwitchInsnNode) {
+                result.add(((LookupSwitchInsnNode) insn).dflt);
+                result.addAll(((LookupSwitchInsnNode) insn).labels);
+            }
+        }
+        return result;
+    }
+
+    private String invocationPrediction(MethodInsnNode invocation, List<AbstractInsnNode> stack) {
+        if (invocation.getOpcode() != Opcodes.INVOKEVIRTUAL && invocation.getOpcode() != Opcodes.INVOKESPECIAL)
+            return ChoicePrediction.UNKNOWN;
+        // values pushed before the receiver are side effect free, ignore them
+        int receiverIdx = stack.size() - Type.getArgumentTypes(invocation.desc).length - 1;
+        if (receiverIdx < 0)
+            return ChoicePrediction.UNKNOWN;
+        stack = stack.subList(receiverIdx, stack.size());
+        AbstractInsnNode receiver = stack.get(0);
+        if (receiver.getOpcode() != Opcodes.ALOAD || ((VarInsnNode) receiver).var != 0)
+            return ChoicePrediction.UNKNOWN;
+
+        // the receiver is this. Str() and CharRange() are final in Parser.
+        // The rule methods are not final and are overridden by the delegate,
+        // but the weaved code runs on the instance of the weaved class, which
+        // is instantiated directly and never subclassed. Thus the invocations
+        // below always target the methods analyzed here
+        if ("Str".equals(invocation.name) && STR_DESCRIPTORS.contains(invocation.desc)) {
+            AbstractInsnNode literal = stack.get(1);
+            if (literal instanceof LdcInsnNode && ((LdcInsnNode) literal).cst instanceof String
+                    && !((String) ((LdcInsnNode) literal).cst).isEmpty())
+                return ChoicePrediction.encodeLiteral((String) ((LdcInsnNode) literal).cst);
+            return ChoicePrediction.UNKNOWN;
+        }
+
+        if ("CharRange".equals(invocation.name) && "(II)Ljava/lang/String;".equals(invocation.desc)) {
+            Integer first = intConstant(stack.get(1));
+            Integer last = intConstant(stack.get(2));
+            if (first != null && last != null && first <= last)
+                return ChoicePrediction.encodeRange(first, last);
+            return ChoicePrediction.UNKNOWN;
+        }
+
+        if (cn.name.equals(invocation.owner))
+            return getPrediction(invocation.name, invocation.desc);
+
+        return ChoicePrediction.UNKNOWN;
+    }
+
+    private boolean isSimplePush(AbstractInsnNode insn) {
+        int opcode = insn.getOpcode();
+        if (opcode >= Opcodes.ILOAD && opcode <= Opcodes.ALOAD)
+            return true;
+        if (opcode >= Opcodes.ACONST_NULL && opcode <= Opcodes.DCONST_1)
+            return insn instanceof InsnNode;
+        return opcode == Opcodes.BIPUSH || opcode == Opcodes.SIPUSH || opcode == Opcodes.LDC;
+    }
+}
@@ -0,0 +1,204 @@
+package com.github.ruediste.lambdaPegParser.weaving;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import com.github.ruediste.lambdaPegParser.DefaultParser;
+import com.github.ruediste.lambdaPegParser.Parser;
+
+/**
+ * Builds the call graph of the methods of a parser class and determines the
+ * methods which can be invoked recursively.
+ *
+ * <p>
+ * The creation of a lambda expression or a method reference targeting a
+ * method of the class counts as an invocation of the target, since the
+ * expressions are passed to {@code FirstOf()}, {@code ZeroOrMore()} and the
+ * like, which invoke them. Invocations of methods declared in the class are
+ * resolved by name and descriptor, independent of the owner used by the
+ * invocation, to account for virtual dispatch. Lambda expressions and method
+ * references created by constructors or static methods may be stored and
+ * invoked from anywhere and are therefore treated as invoked by every method.
+ * </p>
+ *
+ * <p>
+ * Other parsers working on the same parsing context might hold a reference to
+ * a parser of the class. Thus invoking or creating a method reference to a
+ * method of another parser class counts as an invocation of every method of
+ * the class which is not private.
+ * </p>
+ *
+ * <p>
+ * Whether input is consumed before a recursive invocation cannot be decided
+ * from the byte code in general. Thus every method on a cycle of the call
+ * graph is reported as potentially left recursive. Rule methods not on a cycle
+ * are guaranteed not to be left recursive and do not need the seed growing
+ * bookkeeping.
+ * </p>
+ */
+public class LeftRecursionAnalyzer {
+
+    /**
+     * pseudo method representing the methods of other parser classes
+     */
+    private static final String FOREIGN = "<foreign>";
+
+    private final ClassNode cn;
+
+    /**
+     * class loader used to resolve the other classes referenced by the class
+     */
+    private final ClassLoader classLoader;
+
+    /**
+     * invoked methods, by name and descriptor of the invoking method
+     */
+    private final Map<String, Set<String>> callees = new HashMap<>();
+
+    /**
+     * methods which are invoked from unknown locations
+     */
+    private final Set<String> escaping = new HashSet<>();
+
+    private Set<String> recursive;
+
+    public LeftRecursionAnalyzer(ClassNode cn, ClassLoader classLoader) {
+        this.cn = cn;
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Return true if the given method of the class might be left recursive.
+     */
+    public boolean isPotentiallyLeftRecursive(MethodNode method) {
+        if (recursive == null)
+            analyze();
+        return recursive.contains(key(method.name, method.desc));
+    }
+
+    /**
+     * Build the call graph. Performed automatically on the first query, but
+     * has to be triggered explicitly if the methods of the class are modified
+     * afterwards.
+     */
+    public void analyze() {
+        escaping.clear();
+        Set<String> accessible = new HashSet<>();
+        for (MethodNode method : cn.methods) {
+            callees.put(key(method.name, method.desc), new HashSet<>());
+            if ((method.access & (Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC)) == 0 && !"<init>".equals(method.name))
+                accessible.add(key(method.name, method.desc));
+        }
+        callees.put(FOREIGN, accessible);
+        for (MethodNode method : cn.methods) {
+            boolean escapes = "<init>".equals(method.name) || (method.access & Opcodes.ACC_STATIC) != 0
+                    && (method.access & Opcodes.ACC_SYNTHETIC) == 0;
+            Set<String> targets = escapes ? escaping : callees.get(key(method.name, method.desc));
+            for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+                if (insn instanceof MethodInsnNode) {
+                    MethodInsnNode call = (MethodInsnNode) insn;
+                    if (!escapes || cn.name.equals(call.owner))
+                        addTarget(targets, key(call.name, call.desc));
+                    if (!escapes && call.getOpcode() != Opcodes.INVOKESTATIC
+                            && isForeignMethod(call.owner, call.name, call.desc))
+                        targets.add(FOREIGN);
+                } else if (insn instanceof InvokeDynamicInsnNode) {
+                    for (Object arg : ((InvokeDynamicInsnNode) insn).bsmArgs) {
+                        addHandleTarget(targets, arg, escapes);
+                    }
+                } else if (insn instanceof LdcInsnNode) {
+                    addHandleTarget(targets, ((LdcInsnNode) insn).cst, escapes);
+                }
+            }
+        }
+
+        recursive = new HashSet<>();
+        for (String method : callees.keySet()) {
+            if (reaches(method, method))
+                recursive.add(method);
+        }
+        recursive.remove(FOREIGN);
+    }
+
+    private void addHandleTarget(Set<String> targets, Object cst, boolean escapes) {
+        if (cst instanceof Handle) {
+            Handle handle = (Handle) cst;
+            if (cn.name.equals(handle.getOwner()))
+                addTarget(targets, key(handle.getName(), handle.getDesc()));
+            else if (!escapes && handle.getTag() != Opcodes.H_INVOKESTATIC
+                    && isForeignMethod(handle.getOwner(), handle.getName(), handle.getDesc()))
+                targets.add(FOREIGN);
+        }
+    }
+
+    /**
+     * Return true if the given method is an instance method of another parser
+     * class. The methods declared by {@link Parser} and {@link DefaultParser}
+     * do not invoke any rules of other parsers.
+     */
+    private boolean isForeignMethod(String owner, String name, String desc) {
+        if (cn.name.equals(owner) || owner.startsWith("["))
+            return false;
+        try {
+            Class<?> cls = Class.forName(owner.replace('/', '.'), false, classLoader);
+            if (!Parser.class.isAssignableFrom(cls))
+                return false;
+            for (; cls != Parser.class && cls != DefaultParser.class; cls = cls.getSuperclass()) {
+                for (Method method : cls.getDeclaredMethods()) {
+                    if (method.getName().equals(name) && Type.getMethodDescriptor(method).equals(desc))
+                        return !Modifier.isStatic(method.getModifiers());
+                }
+            }
+            return false;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private void addTarget(Set<String> targets, String key) {
+        if (callees.containsKey(key))
+            targets.add(key);
+    }
+
+    /**
+     * Determine if the target can be reached from the source by following at
+     * least one invocation
+     */
+    private boolean reaches(String source, String target) {
+        Set<String> visited = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(source);
+        while (!queue.isEmpty()) {
+            String current = queue.poll();
+            Set<String> next = new HashSet<>(callees.get(current));
+            next.addAll(escaping);
+            for (String callee : next) {
+                if (callee.equals(target))
+                    return true;
+                if (visited.add(callee))
+                    queue.add(callee);
+            }
+        }
+        return false;
+    }
+
+    private static String key(String name, String desc) {
+        return name + desc;
+    }
+}
@@ -101,6 +101,33 @@ public class MethodCallInliner extends GeneratorAdapter {
         super.visitMaxs(stack, locals);
     }
 
+    // The local variables of the inlined code are allocated using newLocal()
+    // by the InliningAdapter and must not be remapped a second time
+
+    @Override
+    public void visitVarInsn(int opcode, int var) {
+        if (inlining)
+            mv.visitVarInsn(opcode, var);
+        else
+            super.visitVarInsn(opcode, var);
+    }
+
+    @Override
+    public void visitIincInsn(int var, int increment) {
+        if (inlining)
+            mv.visitIincInsn(var, increment);
+        else
+            super.visitIincInsn(var, increment);
+    }
+
+    @Override
+    public void visitLocalVariable(String name, String desc, String signature, Label start, Label end, int index) {
+        if (inlining)
+            mv.visitLocalVariable(name, desc, signature, start, end, index);
+        else
+            super.visitLocalVariable(name, desc, signature, start, end, index);
+    }
+
     @Override
     public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {
         // swallow
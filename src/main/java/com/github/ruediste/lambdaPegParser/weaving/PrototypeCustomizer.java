@@ -1,11 +1,13 @@
 package com.github.ruediste.lambdaPegParser.weaving;
 
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.GeneratorAdapter;
 import org.objectweb.asm.tree.MethodNode;
 
+import com.github.ruediste.lambdaPegParser.Parser;
 import com.github.ruediste.lambdaPegParser.PrototypeParser;
 
 /**
@@ -17,13 +19,39 @@ public class PrototypeCustomizer extends GeneratorAdapter {
     private MethodNode ruleNode;
     private MethodVisitor origMv;
     private boolean memo;
+    private boolean adaptiveMemo;
+    private boolean diagnostic;
+    private boolean leftRecursive;
+    private String owner;
+    private String argumentTypesField;
 
-    public PrototypeCustomizer(MethodVisitor mv, MethodNode ruleNode, int ruleMethodNr, boolean memo) {
+    /**
+     * @param memo
+     *            if true, the memoization code is emitted
+     * @param adaptiveMemo
+     *            if true, memoization is decided at runtime. Implies memo.
+     * @param diagnostic
+     *            if true, the rule events of the parsing context are fired
+     * @param leftRecursive
+     *            if false, the left recursion bookkeeping is omitted
+     * @param owner
+     *            internal name of the weaved class
+     * @param argumentTypesField
+     *            name of the static field of the weaved class used to cache
+     *            the argument types of the rule method
+     */
+    public PrototypeCustomizer(MethodVisitor mv, MethodNode ruleNode, int ruleMethodNr, boolean memo,
+            boolean adaptiveMemo, boolean diagnostic, boolean leftRecursive, String owner, String argumentTypesField) {
         super(Opcodes.ASM5, mv, ruleNode.access, ruleNode.name, ruleNode.desc);
         origMv = mv;
         this.ruleNode = ruleNode;
         this.ruleMethodNr = ruleMethodNr;
-        this.memo = memo;
+        this.memo = memo || adaptiveMemo;
+        this.adaptiveMemo = adaptiveMemo;
+        this.diagnostic = diagnostic;
+        this.leftRecursive = leftRecursive;
+        this.owner = owner;
+        this.argumentTypesField = argumentTypesField;
     }
 
     private MethodVisitor sinkMv = new MethodVisitor(Opcodes.ASM5) {
@@ -39,9 +67,20 @@ public class PrototypeCustomizer extends GeneratorAdapter {
                 if (mv != null)
                     mv.visitLdcInsn(ruleNode.name);
             } else if ("getArgs".equals(name)) {
-                loadArgArray();
+                if (Type.getArgumentTypes(ruleNode.desc).length == 0)
+                    mv.visitFieldInsn(Opcodes.GETSTATIC, Type.getInternalName(Parser.class), "NO_ARGS",
+                            "[Ljava/lang/Object;");
+                else
+                    loadArgArray();
             } else if ("getArgumentTypes".equals(name)) {
-                Type[] argumentTypes = Type.getArgumentTypes(desc);
+                // the array is created on first use and cached in a static
+                // field
+                Label initialized = new Label();
+                mv.visitFieldInsn(Opcodes.GETSTATIC, owner, argumentTypesField, "[Ljava/lang/Class;");
+                dup();
+                mv.visitJumpInsn(Opcodes.IFNONNULL, initialized);
+                pop();
+                Type[] argumentTypes = Type.getArgumentTypes(ruleNode.desc);
                 push(argumentTypes.length);
                 mv.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/Class");
                 for (int i = 0; i < argumentTypes.length; i++) {
@@ -50,6 +89,17 @@ public class PrototypeCustomizer extends GeneratorAdapter {
                     push(argumentTypes[i]);
                     mv.visitInsn(Opcodes.AASTORE);
                 }
+                dup();
+                mv.visitFieldInsn(Opcodes.PUTSTATIC, owner, argumentTypesField, "[Ljava/lang/Class;");
+                mv.visitLabel(initialized);
+            } else if ("isDiagnostic".equals(name)) {
+                push(diagnostic);
+            } else if ("isLeftRecursive".equals(name)) {
+                push(leftRecursive);
+            } else if ("isAdaptiveMemo".equals(name)) {
+                push(adaptiveMemo);
+            } else if ("hasNoArgs".equals(name)) {
+                push(Type.getArgumentTypes(ruleNode.desc).length == 0);
             } else if ("startMemo".equals(name)) {
                 if (!memo)
                     mv = sinkMv;
@@ -0,0 +1,99 @@
+package com.github.ruediste.lambdaPegParser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AheadOfTimeWeavingTest {
+
+    static class AotParser extends DefaultParser {
+        public AotParser(DefaultParsingContext ctx) {
+            super(ctx);
+        }
+
+        String rule() {
+            return OneOrMoreChars(Character::isLetter, "letter");
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void weaveDirectory() throws Exception {
+        Path classes = folder.getRoot().toPath();
+        String classFile = AotParser.class.getName().replace('.', '/') + ".class";
+        Path target = classes.resolve(classFile);
+        Files.createDirectories(target.getParent());
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(classFile)) {
+            Files.copy(in, target);
+        }
+
+        assertEquals(Arrays.asList(AotParser.class.getName()),
+                AheadOfTimeWeaving.weave(classes, getClass().getClassLoader()));
+        assertTrue(Files.exists(classes.resolve(AheadOfTimeWeaving.resourceName(AotParser.class, false))));
+        assertTrue(Files.exists(classes.resolve(AheadOfTimeWeaving.resourceName(AotParser.class, true))));
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { classes.toUri().toURL() }, null)) {
+            assertArrayEquals(ParserFactory.weaveClass(AotParser.class, false),
+                    AheadOfTimeWeaving.readWeavedClass(loader, AotParser.class, false));
+            assertArrayEquals(ParserFactory.weaveClass(AotParser.class, true),
+                    AheadOfTimeWeaving.readWeavedClass(loader, AotParser.class, true));
+        }
+    }
+
+    @Test
+    public void staleClassIsIgnored() throws Exception {
+        Path classes = folder.getRoot().toPath();
+        Path target = classes.resolve(AheadOfTimeWeaving.resourceName(AotParser.class, false));
+        Files.createDirectories(target.getParent());
+        try (OutputStream out = Files.newOutputStream(target)) {
+            AheadOfTimeWeaving.write(out, AheadOfTimeWeaving.checksum(AotParser.class) + 1,
+                    ParserFactory.weaveClass(AotParser.class, false));
+        }
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { classes.toUri().toURL() }, null)) {
+            assertNull(AheadOfTimeWeaving.readWeavedClass(loader, AotParser.class, false));
+            assertNull(AheadOfTimeWeaving.readWeavedClass(loader, AotParser.class, true));
+        }
+    }
+
+    @Test
+    public void truncatedClassIsIgnored() throws Exception {
+        Path classes = folder.getRoot().toPath();
+        Path target = classes.resolve(AheadOfTimeWeaving.resourceName(AotParser.class, false));
+        Files.createDirectories(target.getParent());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AheadOfTimeWeaving.write(out, AheadOfTimeWeaving.checksum(AotParser.class),
+                ParserFactory.weaveClass(AotParser.class, false));
+        Files.write(target, Arrays.copyOf(out.toByteArray(), out.size() / 2));
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { classes.toUri().toURL() }, null)) {
+            assertNull(AheadOfTimeWeaving.readWeavedClass(loader, AotParser.class, false));
+        }
+
+        Files.write(target, new byte[] { 1, 2, 3 });
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { classes.toUri().toURL() }, null)) {
+            assertNull(AheadOfTimeWeaving.readWeavedClass(loader, AotParser.class, false));
+        }
+    }
+
+    @Test
+    public void notWeavedAheadOfTime() throws IOException {
+        assertNull(AheadOfTimeWeaving.readWeavedClass(AotParser.class, false));
+        assertEquals("abc", ParserFactory.create(AotParser.class, "abc").rule());
+    }
+}
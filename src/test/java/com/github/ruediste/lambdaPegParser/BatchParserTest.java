@@ -0,0 +1,79 @@
+package com.github.ruediste.lambdaPegParser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import com.github.ruediste.lambdaPegParser.CompiledGrammarTest.ListParser;
+
+public class BatchParserTest {
+
+    private static String input(int i) {
+        return i % 10 == 0 ? i + ",," : i + "," + (i + 1);
+    }
+
+    private static void checkResult(ParseResult<List<Integer>> result) {
+        int i = (int) result.getIndex();
+        if (i % 10 == 0) {
+            assertFalse(result.isSuccess());
+            assertEquals(String.valueOf(i).length() + 1, result.getError().errorPosition);
+        } else {
+            assertTrue(result.isSuccess());
+            assertEquals(i + 1, (int) result.getValue().get(1));
+        }
+    }
+
+    @Test
+    public void ordered() {
+        List<ParseResult<List<Integer>>> results = ParserFactory.parseAll(ListParser.class,
+                IntStream.range(0, 1000).mapToObj(BatchParserTest::input), ListParser::list, 4);
+        assertEquals(1000, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, results.get(i).getIndex());
+            checkResult(results.get(i));
+        }
+    }
+
+    @Test
+    public void unorderedWithExecutor() {
+        CompiledGrammar<List<Integer>> grammar = CompiledGrammar.compile(ListParser.class, ListParser::list);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<ParseResult<List<Integer>>> results = new ArrayList<>();
+            new BatchParser<>(grammar, 3, executor, false)
+                    .parseAll(IntStream.range(0, 500).mapToObj(BatchParserTest::input), results::add);
+            Set<Long> indexes = new TreeSet<>();
+            for (ParseResult<List<Integer>> result : results) {
+                checkResult(result);
+                indexes.add(result.getIndex());
+            }
+            assertEquals(range(500), indexes);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void consumerExceptionAbortsBatch() {
+        CompiledGrammar<List<Integer>> grammar = CompiledGrammar.compile(ListParser.class, ListParser::list);
+        new BatchParser<>(grammar, 2, null, true).parseAll(Stream.of("1", "2", "3"), r -> {
+            throw new IllegalStateException();
+        });
+    }
+
+    private static Set<Long> range(int count) {
+        return IntStream.range(0, count).mapToObj(i -> (long) i).collect(Collectors.toCollection(TreeSet::new));
+    }
+}
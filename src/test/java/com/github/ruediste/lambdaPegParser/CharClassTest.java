@@ -0,0 +1,96 @@
+package com.github.ruediste.lambdaPegParser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CharClassTest {
+
+    @Test
+    public void of() {
+        CharClass cls = CharClass.of("ab😀");
+        assertTrue(cls.test('a'));
+        assertTrue(cls.test('b'));
+        assertTrue(cls.test(0x1F600));
+        assertFalse(cls.test('c'));
+        assertFalse(cls.test(0x1F601));
+        assertFalse(cls.test(-1));
+    }
+
+    @Test
+    public void range() {
+        CharClass cls = CharClass.range('b', 'd');
+        assertFalse(cls.test('a'));
+        assertTrue(cls.test('b'));
+        assertTrue(cls.test('d'));
+        assertFalse(cls.test('e'));
+        assertEquals("character between b and d", cls.getDescription());
+
+        cls = CharClass.range(0x10000, 0x10010);
+        assertFalse(cls.test(0xFFFF));
+        assertTrue(cls.test(0x10000));
+        assertTrue(cls.test(0x10005));
+        assertTrue(cls.test(0x10010));
+        assertFalse(cls.test(0x10011));
+    }
+
+    @Test
+    public void combinations() {
+        CharClass digit = CharClass.category(Character.DECIMAL_DIGIT_NUMBER, "digit");
+        CharClass cls = digit.union(CharClass.of("_"));
+        assertTrue(cls.test('1'));
+        assertTrue(cls.test('_'));
+        assertFalse(cls.test('a'));
+        assertEquals("digit or one of _", cls.getDescription());
+
+        CharClass negated = cls.negate();
+        assertFalse(negated.test('1'));
+        assertTrue(negated.test('a'));
+        assertTrue(negated.test(0x1F600));
+
+        CharClass described = negated.withDescription("no digit");
+        assertTrue(described.test('a'));
+        assertFalse(described.test('1'));
+        assertEquals("no digit", described.getDescription());
+    }
+
+    @Test
+    public void supplementaryCombinations() {
+        CharClass emoji = CharClass.range(0x1F600, 0x1F64F);
+        CharClass cls = CharClass.of("a😀🤔").union(CharClass.range(0x1F640, 0x1F6FF));
+        assertTrue(cls.test(0x1F600));
+        assertFalse(cls.test(0x1F601));
+        assertTrue(cls.test(0x1F640));
+        assertTrue(cls.test(0x1F6FF));
+        assertTrue(cls.test(0x1F914));
+
+        CharClass both = cls.intersection(emoji, "both");
+        assertTrue(both.test(0x1F600));
+        assertFalse(both.test(0x1F601));
+        assertTrue(both.test(0x1F64F));
+        assertFalse(both.test(0x1F650));
+        assertFalse(both.test(0x1F914));
+        assertFalse(both.test('a'));
+
+        CharClass negated = emoji.negate();
+        assertTrue(negated.test(0x1F5FF));
+        assertFalse(negated.test(0x1F600));
+        assertFalse(negated.test(0x1F64F));
+        assertTrue(negated.test(0x1F650));
+        assertTrue(negated.test(Character.MAX_CODE_POINT));
+        assertTrue(negated.test('a'));
+        assertFalse(negated.test(Character.MAX_CODE_POINT + 1));
+    }
+
+    @Test
+    public void categoryDescription() {
+        CharClass lower = CharClass.category(Character.LOWERCASE_LETTER, "lower");
+        CharClass small = CharClass.category(Character.LOWERCASE_LETTER, "small");
+        assertEquals("lower", lower.getDescription());
+        assertEquals("small", small.getDescription());
+        assertTrue(small.test('a'));
+        assertFalse(small.test('A'));
+    }
+}
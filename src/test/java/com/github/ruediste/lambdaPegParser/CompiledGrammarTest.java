@@ -0,0 +1,68 @@
+package com.github.ruediste.lambdaPegParser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class CompiledGrammarTest {
+
+    static class ListParser extends DefaultParser {
+
+        public ListParser(DefaultParsingContext ctx) {
+            super(ctx);
+        }
+
+        public List<Integer> list() {
+            List<Integer> result = new ArrayList<>(OneOrMore(this::number, () -> Str(",")));
+            EOI();
+            return result;
+        }
+
+        @Memo
+        Integer number() {
+            return Integer.valueOf(OneOrMoreChars(Character::isDigit, "digit"));
+        }
+    }
+
+    @Test
+    public void parse() {
+        CompiledGrammar<List<Integer>> grammar = CompiledGrammar.compile(ListParser.class, ListParser::list);
+        assertEquals(3, grammar.parse("1,2,3").size());
+        try {
+            grammar.parse("1,,2");
+            fail();
+        } catch (NoMatchException e) {
+            assertEquals(2, e.getErrorDescription().errorPosition);
+        }
+    }
+
+    @Test
+    public void concurrentParsing() throws Exception {
+        CompiledGrammar<List<Integer>> grammar = CompiledGrammar.compile(ListParser.class, ListParser::list);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                int count = i + 1;
+                futures.add(executor.submit(() -> {
+                    StringBuilder sb = new StringBuilder("0");
+                    for (int j = 1; j < count; j++)
+                        sb.append(",").append(j);
+                    return grammar.parse(sb).size();
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(i + 1, (int) futures.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
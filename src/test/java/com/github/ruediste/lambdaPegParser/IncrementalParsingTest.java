@@ -0,0 +1,156 @@
+package com.github.ruediste.lambdaPegParser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IncrementalParsingTest {
+
+    static class StatementParser extends DefaultParser {
+
+        int statementEvaluations;
+        int valueEvaluations;
+
+        public StatementParser(DefaultParsingContext ctx) {
+            super(ctx);
+        }
+
+        public List<String> statements() {
+            List<String> result = new ArrayList<>(ZeroOrMore(this::statement));
+            EOI();
+            return result;
+        }
+
+        @Memo
+        String statement() {
+            statementEvaluations++;
+            String name = OneOrMoreChars(Character::isLetter, "name");
+            Str("=");
+            String value = value(10);
+            Str(";");
+            return name + "=" + value;
+        }
+
+        @Memo
+        String value(int radix) {
+            valueEvaluations++;
+            return OneOrMoreChars(cp -> Character.digit(cp, radix) >= 0, "digit");
+        }
+
+        public int getStatementEvaluations() {
+            return statementEvaluations;
+        }
+
+        public int getValueEvaluations() {
+            return valueEvaluations;
+        }
+
+        public void resetCounts() {
+            statementEvaluations = 0;
+            valueEvaluations = 0;
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DefaultParsingContext ctx;
+    private StatementParser parser;
+
+    @Before
+    public void setup() {
+        ctx = new DefaultParsingContext("a=1;b=22;c=3;");
+        parser = ParserFactory.create(StatementParser.class, ctx);
+        assertEquals(Arrays.asList("a=1", "b=22", "c=3"), parser.statements());
+        parser.resetCounts();
+    }
+
+    private void checkMatchesFullParse(List<String> result) {
+        StatementParser fresh = ParserFactory.create(StatementParser.class, ctx.getContent());
+        assertEquals(fresh.statements(), result);
+    }
+
+    @Test
+    public void replace() {
+        ctx.applyEdit(6, 1, "5");
+        assertEquals("a=1;b=52;c=3;", ctx.getContent());
+        List<String> result = parser.statements();
+        assertEquals(Arrays.asList("a=1", "b=52", "c=3"), result);
+        checkMatchesFullParse(result);
+        assertEquals(1, parser.getStatementEvaluations());
+        assertEquals(1, parser.getValueEvaluations());
+    }
+
+    @Test
+    public void insert() {
+        ctx.applyEdit(4, 0, "x=7;");
+        List<String> result = parser.statements();
+        assertEquals(Arrays.asList("a=1", "x=7", "b=22", "c=3"), result);
+        checkMatchesFullParse(result);
+        assertEquals(1, parser.getStatementEvaluations());
+    }
+
+    @Test
+    public void removeAndAppend() {
+        ctx.applyEdit(4, 5, "");
+        List<String> result = parser.statements();
+        assertEquals(Arrays.asList("a=1", "c=3"), result);
+        checkMatchesFullParse(result);
+        assertEquals(0, parser.getStatementEvaluations());
+
+        // the failed statement at the end of the input is moved behind the
+        // appended statement
+        ctx.applyEdit(8, 0, "d=4;");
+        result = parser.statements();
+        assertEquals(Arrays.asList("a=1", "c=3", "d=4"), result);
+        checkMatchesFullParse(result);
+        assertEquals(1, parser.getStatementEvaluations());
+    }
+
+    @Test
+    public void editWithinExaminedRange() {
+        // the value of b examined the ';', which is replaced
+        ctx.applyEdit(8, 1, "3;");
+        List<String> result = parser.statements();
+        assertEquals(Arrays.asList("a=1", "b=223", "c=3"), result);
+        checkMatchesFullParse(result);
+        assertEquals(1, parser.getStatementEvaluations());
+        assertEquals(1, parser.getValueEvaluations());
+    }
+
+    @Test
+    public void multiByteContent() {
+        ctx.setContent("ä=1;\uD835\uDC9C=22;c=3;");
+        assertEquals(Arrays.asList("ä=1", "\uD835\uDC9C=22", "c=3"), parser.statements());
+        parser.resetCounts();
+
+        // the surrogate pair before the edit occupies two chars
+        ctx.applyEdit(8, 1, "5");
+        assertEquals("ä=1;\uD835\uDC9C=25;c=3;", ctx.getContent());
+        List<String> result = parser.statements();
+        assertEquals(Arrays.asList("ä=1", "\uD835\uDC9C=25", "c=3"), result);
+        checkMatchesFullParse(result);
+        assertEquals(1, parser.getStatementEvaluations());
+        assertEquals(1, parser.getValueEvaluations());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void mappedInputCannotBeEdited() throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, "ä=1;b=22;".getBytes(StandardCharsets.UTF_8));
+        ctx.setInput(MappedUtf8Input.open(file));
+        assertEquals(Arrays.asList("ä=1", "b=22"), parser.statements());
+        ctx.applyEdit(7, 1, "5");
+    }
+}
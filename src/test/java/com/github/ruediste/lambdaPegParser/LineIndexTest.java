@@ -0,0 +1,65 @@
+package com.github.ruediste.lambdaPegParser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class LineIndexTest {
+
+    @Test
+    public void lookup() {
+        LineIndex index = new LineIndex(new CharSequenceInput("ab\n\ncd"));
+        assertEquals(1, index.getLineNr(0));
+        assertEquals(1, index.getLineNr(2));
+        assertEquals(0, index.getLineStart(2));
+        assertEquals(2, index.getLineEnd(2));
+        assertEquals(2, index.getLineNr(3));
+        assertEquals(3, index.getLineStart(3));
+        assertEquals(3, index.getLineEnd(3));
+        assertEquals(3, index.getLineNr(4));
+        assertEquals(3, index.getLineNr(6));
+        assertEquals(4, index.getLineStart(6));
+        assertEquals(6, index.getLineEnd(6));
+    }
+
+    @Test
+    public void scansLazily() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            sb.append("line ").append(i).append("\n");
+        LineIndex index = new LineIndex(new ReaderInput(new StringReader(sb.toString())));
+        assertEquals(2, index.getLineNr(8));
+        assertTrue(index.getScannedLineCount() < 5);
+        assertEquals(1000, index.getLineNr(sb.length() - 1));
+    }
+
+    @Test
+    public void parallelScan() {
+        StringBuilder sb = new StringBuilder();
+        int lines = 0;
+        while (sb.length() < LineIndex.PARALLEL_THRESHOLD * 2) {
+            for (int i = 0; i < lines % 97; i++)
+                sb.append('x');
+            sb.append('\n');
+            lines++;
+        }
+        String content = sb.toString();
+        LineIndex index = new LineIndex(new CharSequenceInput(content));
+        int lineNr = 1;
+        int lineStart = 0;
+        for (int i = 0; i < content.length(); i += 7) {
+            int newLine;
+            while ((newLine = content.indexOf('\n', lineStart)) < i) {
+                lineStart = newLine + 1;
+                lineNr++;
+            }
+            assertEquals(lineNr, index.getLineNr(i));
+            assertEquals(lineStart, index.getLineStart(i));
+            assertEquals(newLine, index.getLineEnd(i));
+        }
+        assertEquals(lines + 1, index.getScannedLineCount());
+    }
+}
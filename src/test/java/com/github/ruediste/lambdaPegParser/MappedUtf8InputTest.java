@@ -0,0 +1,92 @@
+package com.github.ruediste.lambdaPegParser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.ruediste.lambdaPegParser.PlusMinusTest.PlusMinusParser;
+
+public class MappedUtf8InputTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path write(byte[] bytes) throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, bytes);
+        return file;
+    }
+
+    @Test
+    public void decode() throws IOException {
+        Path file = write("aä漢😀\nb".getBytes(StandardCharsets.UTF_8));
+        DefaultParsingContext ctx = new DefaultParsingContext(MappedUtf8Input.open(file));
+        assertEquals('a', ctx.next());
+        assertEquals(0xE4, ctx.next());
+        assertEquals(3, ctx.getIndex());
+        assertEquals(0x6F22, ctx.next());
+        assertEquals(0x1F600, ctx.next());
+        assertEquals(10, ctx.getIndex());
+        assertEquals('\n', ctx.next());
+        assertEquals("b", ctx.currentPositionInfo().getLine());
+        assertEquals(2, ctx.currentPositionInfo().getLineNr());
+        assertEquals('b', ctx.next());
+        assertFalse(ctx.hasNext());
+        assertEquals("aä漢😀\nb", ctx.getContent());
+    }
+
+    @Test
+    public void malformed() throws IOException {
+        Path file = write(new byte[] { 'a', (byte) 0xC3, 'b', (byte) 0xE6 });
+        DefaultParsingContext ctx = new DefaultParsingContext(MappedUtf8Input.open(file));
+        assertEquals('a', ctx.next());
+        assertEquals(0xFFFD, ctx.next());
+        assertEquals('b', ctx.next());
+        assertEquals(0xFFFD, ctx.next());
+        assertFalse(ctx.hasNext());
+    }
+
+    @Test
+    public void region() throws IOException {
+        Path file = write("xxxx\n1+ä".getBytes(StandardCharsets.UTF_8));
+        DefaultParsingContext ctx = new DefaultParsingContext(MappedUtf8Input.open(file, 5, 4));
+        PlusMinusParser parser = ParserFactory.create(PlusMinusParser.class, ctx);
+        try {
+            parser.input();
+        } catch (NoMatchException e) {
+            PositionInfo info = e.getErrorDescription().errorLineInfo;
+            assertEquals(7, info.getSourceOffset());
+            assertEquals(2, info.getIndexInLine());
+            assertEquals("ä", info.getPositionChar());
+            return;
+        }
+        throw new AssertionError("expected failure");
+    }
+
+    @Test
+    public void openRegions() throws IOException {
+        Path file = write("ab\nä漢\n😀😀😀😀😀\nxyz".getBytes(StandardCharsets.UTF_8));
+        List<String> regions = new ArrayList<>();
+        for (MappedUtf8Input region : MappedUtf8Input.openRegions(file, 12, '\n'))
+            regions.add(region.substring(0, region.length()));
+        // the emoji line is longer than a region, it is cut between two code
+        // points
+        assertEquals(Arrays.asList("ab\nä漢\n", "😀😀😀", "😀😀\nxyz"), regions);
+
+        List<MappedUtf8Input> inputs = MappedUtf8Input.openRegions(file, 12, '\n');
+        assertEquals(9, inputs.get(1).sourceOffset(0));
+        DefaultParsingContext ctx = new DefaultParsingContext(inputs.get(2));
+        assertEquals(0x1F600, ctx.next());
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.ruediste.lambdaPegParser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.ruediste.lambdaPegParser.MemoBudget.Eviction;
+import com.github.ruediste.lambdaPegParser.Parser.RuleCacheKey;
+import com.github.ruediste.lambdaPegParser.Parser.RuleCacheValue;
+import com.github.ruediste.lambdaPegParser.ParsingContext.TextEdit;
+
+public class MemoTableTest {
+
+    private DefaultParsingContext ctx;
+    private MemoTable table;
+
+    @Before
+    public void setup() {
+        ctx = new DefaultParsingContext("abcdef");
+        table = new MemoTable(0);
+    }
+
+    @Test
+    public void putLookup() {
+        long start = ctx.state().mark();
+        assertSame(MemoTable.MISS, table.lookup(ctx, 0, start));
+        ctx.next();
+        ctx.next();
+        table.put(ctx, 0, start, "ab");
+
+        ctx.state().reset(start);
+        assertEquals("ab", table.lookup(ctx, 0, start));
+        assertEquals(2, ctx.getIndex());
+    }
+
+    @Test
+    public void startStateIsPartOfKey() {
+        long start = ctx.state().mark();
+        table.put(ctx, 0, start, "x");
+        ctx.state().minPrecedenceLevel = 2;
+        assertSame(MemoTable.MISS, table.lookup(ctx, 0, ctx.state().mark()));
+    }
+
+    @Test
+    public void failure() {
+        ctx.state().index = 1000;
+        long start = ctx.state().mark();
+        table.putFailure(ctx, 1000, start);
+        try {
+            table.lookup(ctx, 1000, start);
+            fail();
+        } catch (NoMatchException e) {
+            // expected
+        }
+        table.dropBefore(2000);
+        assertSame(MemoTable.MISS, table.lookup(ctx, 1000, start));
+    }
+
+    private void putAt(MemoTable table, int index) {
+        ctx.state().index = index;
+        table.put(ctx, index, ctx.state().mark(), index);
+    }
+
+    private Object lookupAt(MemoTable table, int index) {
+        ctx.state().index = index;
+        return table.lookup(ctx, index, ctx.state().mark());
+    }
+
+    @Test
+    public void lruEviction() {
+        MemoTables tables = new MemoTables(MemoBudget.maxEntries(1024, Eviction.LRU));
+        MemoTable table = tables.get(3);
+        putAt(table, 0);
+        putAt(table, 1000);
+        putAt(table, 2000);
+        putAt(table, 3000);
+        lookupAt(table, 0);
+        putAt(table, 4000);
+        assertEquals(3, tables.getChunkCount());
+        assertEquals(0, lookupAt(table, 0));
+        assertSame(MemoTable.MISS, lookupAt(table, 1000));
+        assertSame(MemoTable.MISS, lookupAt(table, 2000));
+        assertEquals(4000, lookupAt(table, 4000));
+    }
+
+    @Test
+    public void positionWindowEviction() {
+        MemoTables tables = new MemoTables(MemoBudget.maxEntries(1024, Eviction.POSITION_WINDOW));
+        putAt(tables.get(0), 3000);
+        putAt(tables.get(1), 2000);
+        putAt(tables.get(0), 1000);
+        putAt(tables.get(1), 4000);
+        lookupAt(tables.get(1), 1000);
+        putAt(tables.get(0), 5000);
+        assertEquals(3, tables.getChunkCount());
+        assertSame(MemoTable.MISS, lookupAt(tables.get(0), 1000));
+        assertSame(MemoTable.MISS, lookupAt(tables.get(1), 2000));
+        assertEquals(3000, lookupAt(tables.get(0), 3000));
+    }
+
+    private void putAt(MemoTables tables, int index, int examinedEnd) {
+        ctx.startExamining();
+        ctx.examined(examinedEnd);
+        putAt(tables.get(0), index);
+    }
+
+    @Test
+    public void applyEdit() {
+        MemoTables tables = new MemoTables(MemoBudget.unlimited());
+        putAt(tables, 10, 12);
+        putAt(tables, 290, 301);
+        putAt(tables, 300, 305);
+        putAt(tables, 600, 700);
+        assertEquals(3, tables.getChunkCount());
+
+        tables.applyEdit(new TextEdit(299, 1, "abcd"), ctx.stateClone());
+        MemoTable table = tables.get(0);
+        assertEquals(10, lookupAt(table, 10));
+        assertSame(MemoTable.MISS, lookupAt(table, 290));
+        assertSame(MemoTable.MISS, lookupAt(table, 300));
+        assertEquals(300, lookupAt(table, 303));
+        assertEquals(303, ctx.getIndex());
+        assertEquals(600, lookupAt(table, 603));
+        assertSame(MemoTable.MISS, lookupAt(table, 600));
+        assertEquals(3, tables.getChunkCount());
+    }
+
+    @Test
+    public void budgetedRuleCache() {
+        Map<RuleCacheKey, RuleCacheValue> cache = MemoBudget.maxEntries(2, Eviction.LRU).createRuleCache();
+        for (int i = 0; i < 5; i++) {
+            RuleCacheKey key = new RuleCacheKey();
+            key.state = new DefaultParsingState();
+            key.state.index = i;
+            key.args = new Object[] {};
+            cache.put(key, new RuleCacheValue());
+        }
+        assertEquals(2, cache.size());
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.ruediste.lambdaPegParser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class ParallelParserTest {
+
+    static class AssignmentParser extends DefaultParser {
+
+        public AssignmentParser(DefaultParsingContext ctx) {
+            super(ctx);
+        }
+
+        public List<String> assignments() {
+            List<String> result = new ArrayList<>(ZeroOrMore(this::assignment));
+            EOI();
+            return result;
+        }
+
+        String assignment() {
+            String name = OneOrMoreChars(Character::isLetter, "name");
+            Str("=");
+            String value = OneOrMoreChars(Character::isDigit, "value");
+            Str(";\n");
+            return name + value;
+        }
+    }
+
+    private final CompiledGrammar<List<String>> grammar = CompiledGrammar.compile(AssignmentParser.class,
+            AssignmentParser::assignments);
+
+    private String input(int lines) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++)
+            sb.append("x=").append(i).append(";\n");
+        return sb.toString();
+    }
+
+    @Test
+    public void split() {
+        String input = input(1000);
+        ParallelParser<String> parser = new ParallelParser<>(grammar, SyncPointScanner.lineStart(),
+                new ForkJoinPool(4), 100);
+        List<Integer> starts = parser.split(input);
+        assertEquals(16, starts.size());
+        for (int start : starts)
+            assertTrue(start == 0 || input.charAt(start - 1) == '\n');
+    }
+
+    @Test
+    public void parse() {
+        String input = input(1000);
+        ParallelParser<String> parser = new ParallelParser<>(grammar, SyncPointScanner.lineStart(),
+                new ForkJoinPool(4), 100);
+        assertEquals(grammar.parse(input), parser.parse(input));
+        assertEquals(1000, parser.parse(input).size());
+    }
+
+    @Test
+    public void pattern() {
+        String input = input(100);
+        ParallelParser<String> parser = new ParallelParser<>(grammar,
+                SyncPointScanner.atPattern(Pattern.compile("(?m)^x")), new ForkJoinPool(2), 10);
+        assertEquals(grammar.parse(input), parser.parse(input));
+    }
+
+    @Test
+    public void errorPositionIsMapped() {
+        String input = input(500) + "x=a;\n" + input(500);
+        ParallelParser<String> parser = new ParallelParser<>(grammar, SyncPointScanner.lineStart(),
+                new ForkJoinPool(4), 100);
+        try {
+            parser.parse(input);
+            fail();
+        } catch (NoMatchException e) {
+            assertEquals(input(500).length() + 2, e.getErrorDescription().errorPosition);
+            assertEquals(501, e.getErrorDescription().errorLineInfo.getLineNr());
+            assertEquals("x=a;", e.getErrorDescription().errorLineInfo.getLine());
+        }
+    }
+}
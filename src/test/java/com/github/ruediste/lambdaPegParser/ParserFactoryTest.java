@@ -2,9 +2,22 @@ package com.github.ruediste.lambdaPegParser;
 
 import static java.util.stream.Collectors.joining;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import org.junit.Test;
@@ -193,6 +206,46 @@ public class ParserFactoryTest {
         assertEquals(2, parser.getValueCount());
     }
 
+    @AdaptiveMemo
+    static class AdaptiveMemoParser extends DefaultParser {
+
+        int valueCount;
+
+        public int getValueCount() {
+            return valueCount;
+        }
+
+        public AdaptiveMemoParser(DefaultParsingContext ctx) {
+            super(ctx);
+        }
+
+        public String statements() {
+            return ZeroOrMore(this::statement).stream().collect(joining());
+        }
+
+        public String statement() {
+            return FirstOf(() -> value() + Str("+") + value() + Str(";"),
+                    () -> value() + Str("-") + value() + Str(";"), () -> value() + Str(";"));
+        }
+
+        public String value() {
+            valueCount++;
+            return OneOrMoreChars(Character::isDigit, "digit");
+        }
+    }
+
+    @Test
+    public void testAdaptiveMemoization() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            sb.append(i).append(";");
+        AdaptiveMemoParser parser = ParserFactory.create(AdaptiveMemoParser.class, sb.toString());
+        assertEquals(sb.toString(), parser.statements());
+        assertTrue(parser.getValueCount() < 1500);
+        assertEquals(Arrays.asList("value"), parser.getAdaptiveMemoStatistics().getMemoizedRules());
+        assertEquals(3003, parser.getAdaptiveMemoStatistics().getRuleStatistics().get("value").getInvocations());
+    }
+
     /**
      * Grammar:
      * 
@@ -252,6 +305,18 @@ public class ParserFactoryTest {
         }
     }
 
+    static class WeavedClassParser extends DefaultParser {
+        public WeavedClassParser(DefaultParsingContext ctx) {
+            super(ctx);
+        }
+
+        Class<?> weavedClass() {
+            new Object() {
+            }.toString();
+            return getClass();
+        }
+    }
+
     static class InnerClassParser extends DefaultParser {
         public InnerClassParser(DefaultParsingContext ctx) {
             super(ctx);
@@ -294,6 +359,57 @@ public class ParserFactoryTest {
         }
     }
 
+    /**
+     * Left recursion through another parser:
+     *
+     * <pre>
+     * Term     ← Suffixed / 'b'
+     * Suffixed ← Term 'c'
+     * </pre>
+     *
+     * The rules are public, since the weaved classes are defined by different
+     * class loaders.
+     */
+    public static class CrossRecursiveParser extends DefaultParser {
+        private CrossSuffixParser suffixParser;
+
+        public CrossRecursiveParser(DefaultParsingContext ctx) {
+            super(ctx);
+        }
+
+        @NoRule
+        public void setSuffixParser(CrossSuffixParser suffixParser) {
+            this.suffixParser = suffixParser;
+        }
+
+        public String input() {
+            String result = term();
+            EOI();
+            return result;
+        }
+
+        public String term() {
+            return FirstOf(() -> suffixParser.suffixed(), () -> Str("b"));
+        }
+    }
+
+    public static class CrossSuffixParser extends DefaultParser {
+        private CrossRecursiveParser termParser;
+
+        public CrossSuffixParser(DefaultParsingContext ctx) {
+            super(ctx);
+        }
+
+        @NoRule
+        public void setTermParser(CrossRecursiveParser termParser) {
+            this.termParser = termParser;
+        }
+
+        public String suffixed() {
+            return "(" + termParser.term() + ")" + Str("c");
+        }
+    }
+
     private <C extends ParsingContext<?>, T extends Parser<C>> T create(Class<T> cls, String input) {
         C ctx = ParserFactory.createParsingContext(cls).apply(input);
         T parser = ParserFactory.create(cls, ctx);
@@ -331,6 +447,61 @@ public class ParserFactoryTest {
         parser.ruleWithArguments(1, 2);
     }
 
+    @Test
+    public void ruleEventsOnlyInDiagnosticMode() {
+        DefaultParsingContext ctx = new DefaultParsingContext("1+2*3");
+        RulesWithArgumentsParser production = ParserFactory.create(RulesWithArgumentsParser.class, ctx);
+        List<RuleLoggingInfo> infos = new ArrayList<>();
+        ctx.enteringEvent.register(infos::add);
+        production.ruleWithArguments(1, 2);
+        assertEquals(0, infos.size());
+
+        RulesWithArgumentsParser diagnostic = ParserFactory.create(RulesWithArgumentsParser.class, ctx);
+        diagnostic.ruleWithArguments(1, 2);
+        diagnostic.ruleWithArguments(3, 4);
+        assertEquals(2, infos.size());
+        assertEquals("ruleWithArguments", infos.get(0).methodName);
+        assertEquals(Arrays.asList(3, 4), Arrays.asList(infos.get(1).arguments));
+        assertEquals(Arrays.asList(int.class, int.class), Arrays.asList(infos.get(0).argumentTypes));
+        assertSame(infos.get(0).argumentTypes, infos.get(1).argumentTypes);
+    }
+
+    @Test
+    public void lateRuleEventHandlerIsReported() {
+        List<LogRecord> records = new ArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(ParsingContext.class.getName());
+        logger.addHandler(handler);
+        try {
+            DefaultParsingContext ctx = new DefaultParsingContext("1+2*3");
+            ctx.enteringEvent.register(info -> {
+            });
+            ParserFactory.create(RulesWithArgumentsParser.class, ctx);
+            assertEquals(0, records.size());
+
+            ctx = new DefaultParsingContext("1+2*3");
+            ParserFactory.create(RulesWithArgumentsParser.class, ctx);
+            new Tracer(ctx, System.out);
+            assertEquals(1, records.size());
+            assertEquals(Level.WARNING, records.get(0).getLevel());
+        } finally {
+            logger.removeHandler(handler);
+        }
+    }
+
     @Test
     public void recursiveError() {
         try {
@@ -348,6 +519,44 @@ public class ParserFactoryTest {
         assertEquals("bbb", parser.input());
     }
 
+    @Test
+    public void crossParserLeftRecursion() {
+        DefaultParsingContext ctx = new DefaultParsingContext("bcc");
+        CrossRecursiveParser parser = ParserFactory.create(CrossRecursiveParser.class, ctx);
+        CrossSuffixParser suffixParser = ParserFactory.create(CrossSuffixParser.class, ctx);
+        parser.setSuffixParser(suffixParser);
+        suffixParser.setTermParser(parser);
+        assertEquals("((b)c)c", parser.input());
+    }
+
+    @Test
+    public void weavedClassIsShared() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Class<?>>> futures = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                futures.add(executor.submit(() -> ParserFactory.create(WeavedClassParser.class, "").weavedClass()));
+            }
+            Class<?> weavedClass = futures.get(0).get();
+            assertNotSame(WeavedClassParser.class, weavedClass);
+            for (Future<Class<?>> future : futures) {
+                assertSame(weavedClass, future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void delegateClassIsShared() {
+        SimpleParser first = create(SimpleParser.class, "1");
+        SimpleParser second = ParserFactory.create(SimpleParser.class, "2");
+        assertSame(SimpleParser.class, first.getClass().getSuperclass());
+        assertNotSame(first.getClass(), second.getClass());
+        assertSame(second.getClass(), ParserFactory.create(SimpleParser.class, "3").getClass());
+        assertEquals("((2)", second.InputLine());
+    }
+
     @Test
     public void innerClass() {
         InnerClassParser parser = ParserFactory.create(InnerClassParser.class, " b bb");
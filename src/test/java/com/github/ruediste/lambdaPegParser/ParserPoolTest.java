@@ -0,0 +1,95 @@
+package com.github.ruediste.lambdaPegParser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class ParserPoolTest {
+
+    static class SumParser extends DefaultParser {
+
+        int numberCount;
+
+        public int getNumberCount() {
+            return numberCount;
+        }
+
+        public SumParser(DefaultParsingContext ctx) {
+            super(ctx);
+        }
+
+        public int sum() {
+            int result = FirstOf(() -> number() + Str("+") + number(), () -> number() + Str("-") + number(),
+                    () -> number() + "").length();
+            EOI();
+            return result;
+        }
+
+        @Memo
+        public String number() {
+            numberCount++;
+            return OneOrMoreChars(Character::isDigit, "digit");
+        }
+    }
+
+    static class ResetCountingParser extends DefaultParser {
+
+        int resetCount;
+
+        public ResetCountingParser(DefaultParsingContext ctx) {
+            super(ctx);
+        }
+
+        @Override
+        public void resetSession() {
+            resetCount++;
+            super.resetSession();
+        }
+
+        public int getResetCount() {
+            return resetCount;
+        }
+    }
+
+    @Test
+    public void parsersAreReused() {
+        ParserPool<SumParser> pool = ParserPool.of(SumParser.class, 1);
+        SumParser first = pool.borrow("1+2");
+        SumParser second = pool.borrow("1-2");
+        assertNotSame(first, second);
+        pool.release(first);
+        pool.release(second);
+        assertEquals(1, pool.getIdleCount());
+        assertSame(first, pool.borrow("3"));
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void memoizedResultsAreReset() {
+        ParserPool<SumParser> pool = ParserPool.of(SumParser.class, 1);
+        assertEquals(3, (int) pool.parse("1+2", SumParser::sum));
+        assertEquals(5, (int) pool.parse("11-22", p -> {
+            int count = p.getNumberCount();
+            int result = p.sum();
+            // the stale result of the previous input must not be used for
+            // the first number
+            assertEquals(2, p.getNumberCount() - count);
+            return result;
+        }));
+        assertEquals(2, (int) pool.parse("12", SumParser::sum));
+    }
+
+    @Test
+    public void sessionIsResetOnce() {
+        DefaultParsingContext ctx = new DefaultParsingContext("");
+        ResetCountingParser parser = ParserFactory.create(ResetCountingParser.class, ctx);
+        ctx.setContent("1");
+        assertEquals(1, parser.getResetCount());
+
+        parser.detach();
+        ctx.setContent("2");
+        assertEquals(1, parser.getResetCount());
+    }
+}
@@ -1,8 +1,21 @@
 package com.github.ruediste.lambdaPegParser;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Test;
 
 import com.github.ruediste.lambdaPegParser.DefaultParsingContext;
+import com.github.ruediste.lambdaPegParser.ParsingContext.ExpectationFrame;
+import com.github.ruediste.lambdaPegParser.ParsingContext.LazyExpectation;
 import com.github.ruediste.lambdaPegParser.ParsingContext.StateSnapshot;
 
 public class ParsingContextTest {
@@ -36,4 +49,140 @@ public class ParsingContextTest {
         sn.restoreClone();
         sn.restoreClone();
     }
+
+    private static class CustomState extends ParsingState<CustomState> {
+        int custom;
+    }
+
+    private static class CustomContext extends ParsingContext<CustomState> {
+
+        public CustomContext(String content) {
+            super(content);
+        }
+
+        @Override
+        protected CustomState createInitialState() {
+            return new CustomState();
+        }
+    }
+
+    @Test
+    public void markReset() {
+        DefaultParsingContext ctx = new DefaultParsingContext("foo");
+        int outer = ctx.mark();
+        ctx.next();
+        ctx.state().minPrecedenceLevel = 3;
+        int inner = ctx.mark();
+        ctx.next();
+        ctx.reset(inner);
+        assertEquals(1, ctx.getIndex());
+        assertEquals(3, ctx.state().minPrecedenceLevel);
+        ctx.release(inner);
+        ctx.reset(outer);
+        ctx.reset(outer);
+        assertEquals(0, ctx.getIndex());
+        assertEquals(0, ctx.state().minPrecedenceLevel);
+        ctx.release(outer);
+    }
+
+    @Test
+    public void markResetCustomState() {
+        CustomContext ctx = new CustomContext("foo");
+        int mark = ctx.mark();
+        ctx.next();
+        ctx.state().custom = 5;
+        ctx.reset(mark);
+        assertEquals(0, ctx.getIndex());
+        assertEquals(0, ctx.state().custom);
+        ctx.release(mark);
+    }
+
+    @Test
+    public void charArrayInput() {
+        char[] chars = "xa\uD83D\uDE00b\nc".toCharArray();
+        DefaultParsingContext ctx = new DefaultParsingContext(new CharArrayInput(chars, 1, chars.length - 1));
+        checkInput(ctx);
+    }
+
+    @Test
+    public void charSequenceInput() {
+        StringBuilder sb = new StringBuilder("xxa\uD83D\uDE00b\ncy");
+        DefaultParsingContext ctx = new DefaultParsingContext(new CharSequenceInput(sb, 2, sb.length() - 1));
+        checkInput(ctx);
+    }
+
+    @Test
+    public void charBufferInput() {
+        CharBuffer buffer = CharBuffer.wrap("xa\uD83D\uDE00b\nc");
+        buffer.position(1);
+        DefaultParsingContext ctx = new DefaultParsingContext(new CharBufferInput(buffer));
+        checkInput(ctx);
+        assertEquals(1, buffer.position());
+    }
+
+    private void checkInput(DefaultParsingContext ctx) {
+        assertEquals("a\uD83D\uDE00b\nc", ctx.getContent());
+        assertEquals('a', ctx.next());
+        assertEquals(0x1F600, ctx.peek());
+        assertEquals(0x1F600, ctx.next());
+        assertEquals(3, ctx.getIndex());
+        assertEquals('b', ctx.next());
+        ctx.next();
+        PositionInfo info = ctx.currentPositionInfo();
+        assertEquals(2, info.getLineNr());
+        assertEquals("c", info.getLine());
+        assertEquals('c', ctx.next());
+        assertFalse(ctx.hasNext());
+    }
+
+    @Test
+    public void lazyExpectationsAreDescribedOnDemand() {
+        DefaultParsingContext ctx = new DefaultParsingContext("foo");
+        AtomicInteger describeCount = new AtomicInteger();
+        LazyExpectation expectation = () -> {
+            describeCount.incrementAndGet();
+            return "lazy";
+        };
+        ctx.registerExpectation("bar", 1);
+        ctx.registerExpectation(expectation, 1);
+        ctx.registerExpectation(expectation, 1);
+        assertFalse(ctx.isExpectationRelevant(0));
+        assertEquals(0, describeCount.get());
+        assertEquals(new LinkedHashSet<>(Arrays.asList("bar", "lazy")), ctx.getErrorDescription().expectations);
+        assertEquals(1, describeCount.get());
+    }
+
+    @Test
+    public void expectationFramesAreReused() {
+        DefaultParsingContext ctx = new DefaultParsingContext("foo");
+        ExpectationFrame root = ctx.getExpectationFrame();
+        ExpectationFrame previous = ctx.pushExpectationFrame();
+        assertSame(root, previous);
+        ExpectationFrame frame = ctx.getExpectationFrame();
+        ctx.registerExpectation("bar", 2);
+        ctx.popExpectationFrame(previous);
+        assertSame(root, ctx.getExpectationFrame());
+        assertEquals(0, root.getExpectations().size());
+
+        ctx.pushExpectationFrame();
+        assertSame(frame, ctx.getExpectationFrame());
+        assertEquals(0, frame.index);
+        assertEquals(0, frame.getExpectations().size());
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void inputSetEvents() {
+        DefaultParsingContext ctx = new DefaultParsingContext("foo");
+        List<ParsingInput> inputs = new ArrayList<>();
+        List<String> contents = new ArrayList<>();
+        ctx.inputSetEvent.register(inputs::add);
+        ctx.contentSetEvent.register(contents::add);
+        CharArrayInput input = new CharArrayInput("bar".toCharArray());
+        ctx.setInput(input);
+        ctx.setContent("baz");
+        assertEquals(2, inputs.size());
+        assertSame(input, inputs.get(0));
+        assertEquals(Arrays.asList("bar", "baz"), contents);
+    }
 }
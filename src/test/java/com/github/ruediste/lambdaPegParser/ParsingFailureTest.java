@@ -9,6 +9,9 @@ import java.util.HashSet;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.github.ruediste.lambdaPegParser.LiteralSet.MatchMode;
+import com.google.common.collect.ImmutableMap;
+
 import com.github.ruediste.lambdaPegParser.DefaultParser;
 import com.github.ruediste.lambdaPegParser.DefaultParsingContext;
 import com.github.ruediste.lambdaPegParser.NoMatchException;
@@ -34,6 +37,16 @@ public class ParsingFailureTest {
             return Char(Character::isLetter, "letter");
         }
 
+        private final CharClass letters = CharClass.matching(Character::isLetter, "letter");
+
+        String charClass() {
+            return Char(letters);
+        }
+
+        String oneOrMoreCharClass() {
+            return OneOrMoreChars(letters);
+        }
+
         String charRange() {
             return CharRange('a', 'b');
         }
@@ -49,6 +62,44 @@ public class ParsingFailureTest {
         String expect() {
             return Expect("expect", () -> Str("a") + Str("b"));
         }
+
+        private final LiteralSet<String> operators = LiteralSet.of("<", "<=", "=");
+
+        private final LiteralSet<String> keywords = new LiteralSet<>(
+                ImmutableMap.of("if", "IF", "iffy", "IFFY", "else", "ELSE"), MatchMode.FIRST_DECLARED, true, "keyword");
+
+        String operator() {
+            return OneOfStr(operators);
+        }
+
+        String keyword() {
+            return OneOfStr(keywords);
+        }
+
+        String committed() {
+            return FirstOf(() -> {
+                Str("if");
+                Commit();
+                return Str("(");
+            } , () -> OneOrMoreChars(letters));
+        }
+
+        String firstOf() {
+            return FirstOf(() -> Str("a"), () -> CharRange('x', 'z'), this::string, () -> Str("b", () -> "B"));
+        }
+
+        String optionalA() {
+            try {
+                Str("a");
+            } catch (NoMatchException e) {
+                // optional
+            }
+            return Str("b");
+        }
+
+        String firstOfTryCatch() {
+            return FirstOf(this::optionalA, () -> Str("c"));
+        }
     }
 
     ParsingFailureParser parser;
@@ -83,6 +134,16 @@ public class ParsingFailureTest {
         expectFailure("", parser::matchChar, 0, "letter");
     }
 
+    @Test
+    public void charClass() {
+        expectFailure("1", parser::charClass, 0, "letter");
+        expectFailure("", parser::oneOrMoreCharClass, 0, "letter");
+
+        ctx.setContent("ab1");
+        assertEquals("ab", parser.oneOrMoreCharClass());
+        assertEquals(2, ctx.getIndex());
+    }
+
     @Test
     public void charRange() {
         expectFailure("c", parser::charRange, 0, "character between a and b");
@@ -107,6 +168,77 @@ public class ParsingFailureTest {
         expectFailure("", parser::expect, 0, "expect");
     }
 
+    @Test
+    public void oneOfStr() {
+        expectFailure("", parser::operator, 0, "one of <, <=, =");
+        expectFailure("!", parser::operator, 0, "one of <, <=, =");
+        expectFailure("elsa", parser::keyword, 0, "keyword");
+
+        ctx.setContent("<");
+        assertEquals("<", parser.operator());
+        ctx.setContent("<=");
+        assertEquals("<=", parser.operator());
+        assertEquals(2, ctx.getIndex());
+        ctx.setContent("<>");
+        assertEquals("<", parser.operator());
+        assertEquals(1, ctx.getIndex());
+
+        ctx.setContent("IFFY");
+        assertEquals("IF", parser.keyword());
+        assertEquals(2, ctx.getIndex());
+        ctx.setContent("Else");
+        assertEquals("ELSE", parser.keyword());
+    }
+
+    @Test
+    public void firstOf() {
+        expectFailure("c", parser::firstOf, 0, "a", "character between x and z", "foo", "b");
+        expectFailure("", parser::firstOf, 0, "a", "character between x and z", "foo", "b");
+        expectFailure("fo", parser::firstOf, 0, "a", "character between x and z", "foo", "b");
+
+        ctx.setContent("y");
+        assertEquals("y", parser.firstOf());
+        ctx.setContent("foo");
+        assertEquals("foo", parser.firstOf());
+        ctx.setContent("b");
+        assertEquals("B", parser.firstOf());
+    }
+
+    @Test
+    public void commit() {
+        expectFailure("ifx", parser::committed, 2, "(");
+        ctx.setContent("ix");
+        assertEquals("ix", parser.committed());
+        ctx.setContent("if(");
+        assertEquals("(", parser.committed());
+        assertEquals(2, ctx.getCommitIndex());
+    }
+
+    @Test
+    public void firstOfTryCatch() {
+        // the first set of optionalA() is not just "a"
+        ctx.setContent("b");
+        assertEquals("b", parser.firstOfTryCatch());
+        ctx.setContent("ab");
+        assertEquals("b", parser.firstOfTryCatch());
+        ctx.setContent("c");
+        assertEquals("c", parser.firstOfTryCatch());
+    }
+
+    @Test
+    public void failureDescriptionIsKeptAfterContentChange() {
+        ctx.setContent("fo");
+        try {
+            parser.string();
+            fail("Expected failure");
+        } catch (NoMatchException e) {
+            assertEquals(0, e.getStackTrace().length);
+            ctx.setContent("foo");
+            assertEquals(0, e.getErrorDescription().errorPosition);
+            assertEquals(new HashSet<String>(Arrays.asList("foo")), e.getErrorDescription().expectations);
+        }
+    }
+
     private void expectFailure(String content, Runnable runnable, int failureIndex, String... expectations) {
         ctx.setContent(content);
         try {
@@ -114,7 +246,8 @@ public class ParsingFailureTest {
             fail("Expected failure");
         } catch (NoMatchException e) {
             assertEquals("failure index", failureIndex, ctx.getExpectationFrame().index);
-            assertEquals(new HashSet<String>(Arrays.asList(expectations)), ctx.getExpectationFrame().expectations);
+            assertEquals(new HashSet<String>(Arrays.asList(expectations)),
+                    ctx.getExpectationFrame().getExpectations());
         }
     }
 }
@@ -56,4 +56,27 @@ public class PositionInfoTest {
         assertEquals(1, desc.getIndexInLine());
         assertEquals("-*", desc.getUnderline('-', '*'));
     }
+
+    @Test
+    public void longLineIsCut() {
+        StringBuilder sb = new StringBuilder("a\n");
+        for (int i = 0; i < 1000; i++)
+            sb.append((char) ('a' + i % 26));
+        String content = sb.toString();
+
+        PositionInfo info = new PositionInfo(content, 502);
+        assertEquals(2, info.getLineNr());
+        String line = info.getLine();
+        assertEquals("..." + content.substring(402, 602) + "...", line);
+        assertEquals(103, info.getIndexInLine());
+        assertEquals(content.charAt(502), line.charAt(info.getIndexInLine()));
+
+        info = new PositionInfo(content, 4);
+        assertEquals(content.substring(2, 202) + "...", info.getLine());
+        assertEquals(2, info.getIndexInLine());
+
+        info = new PositionInfo(content, content.length());
+        assertEquals("..." + content.substring(content.length() - 200), info.getLine());
+        assertEquals(203, info.getIndexInLine());
+    }
 }
@@ -0,0 +1,104 @@
+package com.github.ruediste.lambdaPegParser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class ReaderInputTest {
+
+    public static class RecordParser extends DefaultParser {
+
+        public RecordParser(DefaultParsingContext ctx) {
+            super(ctx);
+        }
+
+        int record() {
+            int result = Integer.parseInt(OneOrMoreChars(Character::isDigit, "number"));
+            Str(";");
+            Opt(() -> Str("\n"));
+            return result;
+        }
+
+        long records() {
+            long sum = 0;
+            while (getParsingContext().hasNext()) {
+                sum += record();
+                Commit();
+            }
+            return sum;
+        }
+    }
+
+    @Test
+    public void windowIsTrimmed() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++)
+            sb.append(i).append(i % 10 == 0 ? ";\n" : ";");
+        ReaderInput input = new ReaderInput(new StringReader(sb.toString()), 64);
+        DefaultParsingContext ctx = new DefaultParsingContext(input);
+        RecordParser parser = ParserFactory.create(RecordParser.class, ctx);
+        long sum = 0;
+        while (ctx.hasNext())
+            sum += parser.record();
+        assertEquals(9999 * 10000 / 2, sum);
+        assertTrue(input.getBufferCapacity() <= 128);
+    }
+
+    @Test
+    public void windowIsTrimmedAfterCommit() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++)
+            sb.append(i).append(";");
+        ReaderInput input = new ReaderInput(new StringReader(sb.toString()), 64);
+        DefaultParsingContext ctx = new DefaultParsingContext(input);
+        RecordParser parser = ParserFactory.create(RecordParser.class, ctx);
+        assertEquals(9999 * 10000 / 2, parser.records());
+        assertTrue(input.getBufferCapacity() <= 128);
+    }
+
+    @Test
+    public void errorLineAfterTrimming() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            sb.append(i).append(";\n");
+        sb.append("12x;");
+        DefaultParsingContext ctx = new DefaultParsingContext(
+                new ReaderInput(new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8)),
+                        StandardCharsets.UTF_8));
+        RecordParser parser = ParserFactory.create(RecordParser.class, ctx);
+        try {
+            while (ctx.hasNext())
+                parser.record();
+            fail();
+        } catch (NoMatchException e) {
+            PositionInfo info = e.getErrorDescription().errorLineInfo;
+            assertEquals(1001, info.getLineNr());
+            assertEquals("12x;", info.getLine());
+            assertEquals(2, info.getIndexInLine());
+        }
+    }
+
+    @Test
+    public void literalSetReadAheadKeepsBestMatch() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            sb.append("ab");
+        // the long literal is read ahead far beyond the window size, without
+        // matching
+        LiteralSet<String> literals = LiteralSet.of("ab", sb + "x");
+        DefaultParsingContext ctx = new DefaultParsingContext(new ReaderInput(new StringReader(sb + "c"), 16));
+        RecordParser parser = ParserFactory.create(RecordParser.class, ctx);
+        int count = 0;
+        while (ctx.peek() != 'c') {
+            assertEquals("ab", parser.OneOfStr(literals));
+            count++;
+        }
+        assertEquals(100, count);
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.ruediste.lambdaPegParser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.ruediste.lambdaPegParser.CompiledGrammarTest.ListParser;
+
+public class TraceRecorderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Return the lines of rule events
+     */
+    private List<String> ruleLines(String trace) {
+        return Arrays.stream(trace.split("\n"))
+                .filter(l -> l.contains(" Entering, ") || l.contains(" Leaving, ") || l.contains(" Failed, "))
+                .collect(Collectors.toList());
+    }
+
+    private String decode(Path trace, String input) throws IOException {
+        StringWriter out = new StringWriter();
+        new TraceDecoder(out, input == null ? null : new CharSequenceInput(input)).decode(trace);
+        return out.toString();
+    }
+
+    @Test
+    public void recordToFile() throws IOException {
+        String input = "1,2,3";
+        DefaultParsingContext ctx = new DefaultParsingContext(input);
+        StringWriter text = new StringWriter();
+        new Tracer(ctx, text);
+        Path trace = folder.newFile().toPath();
+        TraceRecorder recorder = TraceRecorder.toFile(ctx, trace, 4);
+        assertEquals(Arrays.asList(1, 2, 3), ParserFactory.create(ListParser.class, ctx).list());
+        recorder.close();
+
+        assertTrue(recorder.getEventCount() > 8);
+        String decoded = decode(trace, input);
+        assertFalse(ruleLines(decoded).isEmpty());
+        assertEquals(ruleLines(text.toString()), ruleLines(decoded));
+        assertTrue(decoded.contains("unmet expectation: digit"));
+    }
+
+    @Test
+    public void flightRecorderDumpsOnFailure() throws IOException {
+        DefaultParsingContext ctx = new DefaultParsingContext("1,2");
+        Path dump = folder.getRoot().toPath().resolve("dump.trace");
+        TraceRecorder recorder = TraceRecorder.flightRecorder(ctx, 8, dump);
+        ListParser parser = ParserFactory.create(ListParser.class, ctx);
+        assertEquals(Arrays.asList(1, 2), parser.list());
+        assertFalse(Files.exists(dump));
+
+        ctx.setContent("1,,3");
+        try {
+            parser.list();
+            fail();
+        } catch (NoMatchException e) {
+            // expected
+        }
+        assertTrue(Files.exists(dump));
+        String[] lines = decode(dump, null).split("\n");
+        assertEquals(8, lines.length);
+        assertTrue(lines[7], lines[7].endsWith("ListParser.list Failed, index: 1"));
+        assertTrue(recorder.getEventCount() > 8);
+    }
+}
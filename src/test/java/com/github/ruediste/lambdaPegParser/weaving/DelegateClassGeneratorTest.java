@@ -0,0 +1,49 @@
+package com.github.ruediste.lambdaPegParser.weaving;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+import com.github.ruediste.lambdaPegParser.DefaultParser;
+import com.github.ruediste.lambdaPegParser.DefaultParsingContext;
+import com.github.ruediste.lambdaPegParser.ParserFactory;
+
+public class DelegateClassGeneratorTest {
+
+    public static class TestParser extends DefaultParser {
+
+        public TestParser(DefaultParsingContext ctx) {
+            super(ctx);
+        }
+
+        public String word() {
+            return OneOrMoreChars(Character::isLetter, "letter");
+        }
+
+        @Override
+        public String toString() {
+            return "TestParser";
+        }
+    }
+
+    @Test
+    public void objectMethodsAreNotDelegated() {
+        for (Method method : DelegateClassGenerator.getDelegatedMethods(TestParser.class))
+            assertFalse(method.toString(), method.getDeclaringClass() == Object.class);
+        assertTrue(DelegateClassGenerator.getDelegatedMethods(TestParser.class).stream()
+                .anyMatch(m -> m.getName().equals("toString")));
+    }
+
+    @Test
+    public void createDelegate() {
+        // Object.clone() cannot be made accessible on JDK 16 and later
+        TestParser parser = ParserFactory.create(TestParser.class, "abc");
+        assertTrue(parser instanceof DelegateClassGenerator.Delegate);
+        assertEquals("abc", parser.word());
+        assertEquals("TestParser", parser.toString());
+    }
+}
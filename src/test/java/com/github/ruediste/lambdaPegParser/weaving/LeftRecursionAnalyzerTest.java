@@ -0,0 +1,122 @@
+package com.github.ruediste.lambdaPegParser.weaving;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import com.github.ruediste.lambdaPegParser.DefaultParser;
+import com.github.ruediste.lambdaPegParser.DefaultParsingContext;
+
+public class LeftRecursionAnalyzerTest {
+
+    static class TestParser extends DefaultParser {
+
+        private final Supplier<String> stored;
+
+        public TestParser(DefaultParsingContext ctx) {
+            super(ctx);
+            stored = this::viaField;
+        }
+
+        String input() {
+            String result = expr();
+            EOI();
+            return result;
+        }
+
+        String expr() {
+            return FirstOf(() -> term() + Str("+") + expr(), this::term);
+        }
+
+        String term() {
+            return OneOrMoreChars(Character::isDigit, "digit");
+        }
+
+        String callsStored() {
+            return stored.get();
+        }
+
+        String viaField() {
+            return Opt(this::callsStored).orElse("");
+        }
+    }
+
+    static class CrossParser extends DefaultParser {
+
+        OtherParser other;
+
+        public CrossParser(DefaultParsingContext ctx) {
+            super(ctx);
+        }
+
+        String term() {
+            return FirstOf(() -> other.suffixed(), () -> Str("b"));
+        }
+
+        String digits() {
+            return OneOrMoreChars(Character::isDigit, "digit");
+        }
+
+        private String notAccessible() {
+            return other.suffixed();
+        }
+    }
+
+    static class OtherParser extends DefaultParser {
+
+        CrossParser cross;
+
+        public OtherParser(DefaultParsingContext ctx) {
+            super(ctx);
+        }
+
+        String suffixed() {
+            return cross.term() + Str("c");
+        }
+    }
+
+    @Test
+    public void recursiveRules() {
+        assertEquals(new TreeSet<>(Arrays.asList("callsStored", "expr", "viaField")),
+                recursiveMethods(TestParser.class));
+    }
+
+    @Test
+    public void recursionThroughOtherParser() {
+        assertEquals(new TreeSet<>(Arrays.asList("term")), recursiveMethods(CrossParser.class));
+        assertEquals(new TreeSet<>(Arrays.asList("suffixed")), recursiveMethods(OtherParser.class));
+    }
+
+    private Set<String> recursiveMethods(Class<?> cls) {
+        ClassNode cn = readClass(cls);
+        LeftRecursionAnalyzer analyzer = new LeftRecursionAnalyzer(cn, cls.getClassLoader());
+        Set<String> recursive = new TreeSet<>();
+        for (MethodNode method : cn.methods) {
+            if ((method.access & (Opcodes.ACC_SYNTHETIC | Opcodes.ACC_STATIC)) == 0
+                    && analyzer.isPotentiallyLeftRecursive(method))
+                recursive.add(method.name);
+        }
+        return recursive;
+    }
+
+    private ClassNode readClass(Class<?> cls) {
+        try (InputStream in = cls.getClassLoader().getResourceAsStream(cls.getName().replace('.', '/') + ".class")) {
+            ClassNode cn = new ClassNode();
+            new ClassReader(in).accept(cn, 0);
+            return cn;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}